@@ -15,90 +15,706 @@
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.*;
+import java.util.concurrent.atomic.*;
 
 public class RateLimiter {
 
+    public enum Algorithm {
+        SLIDING_LOG,            // exact, keeps every timestamp in the window
+        TOKEN_BUCKET,           // refills maxRequests tokens per window
+        GCRA,                   // generic cell rate algorithm, one timestamp per key
+        SLIDING_WINDOW_COUNTER  // weighted previous + current window counters
+    }
+
+    // What happens to a request for a new key once maxTrackedKeys keys are tracked
+    public enum OverflowPolicy {
+        REJECT_NEW_KEYS,   // deny requests for keys that are not tracked yet
+        ALLOW_UNTRACKED,   // fail open: allow them without keeping any state
+        EVICT_ANY          // evict a sampled key whose window has gone idle, else deny like REJECT_NEW_KEYS
+    }
+
+    private static final int SWEEP_BATCH = 1024;
+    private static final int EVICT_SAMPLE = 8;
+
     private final int defaultMaxRequests;
     private final double defaultWindowSeconds;
-    private final Map<String, Deque<Long>> store;
-    private final Map<String, ReentrantLock> locks;
+    private final Algorithm defaultAlgorithm;
+    private final Limit defaultLimit;
+    private final Map<String, KeyState> store;
     private final Map<String, Limit> limits;
 
+    private volatile int maxTrackedKeys = 0; // 0 = unbounded
+    private final AtomicInteger tracked = new AtomicInteger(); // keys in store plus inserts in progress
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.EVICT_ANY;
+    private volatile long sweepIntervalNanos = 1_000_000_000L;
+    private volatile long nextSweepAt = System.nanoTime();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private Iterator<Map.Entry<String, KeyState>> sweepCursor; // only touched by the sweeping winner
+    private Iterator<Map.Entry<String, KeyState>> evictCursor;  // guarded by evictLock
+    private final Object evictLock = new Object();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    private volatile double evictionRate;
+    private long rateWindowStart = System.nanoTime();
+    private long rateWindowEvictions;
+
     private static class Limit {
-        int maxRequests;
-        double windowSeconds;
+        final int maxRequests;
+        final double windowSeconds;
+        final Algorithm algorithm;
+        final long windowNanos;
 
-        Limit(int maxRequests, double windowSeconds) {
+        Limit(int maxRequests, double windowSeconds, Algorithm algorithm) {
             this.maxRequests = maxRequests;
             this.windowSeconds = windowSeconds;
+            this.algorithm = algorithm;
+            this.windowNanos = (long) (windowSeconds * 1e9);
+        }
+    }
+
+    // Per-key state. Every algorithm except SLIDING_LOG keeps its state in a single
+    // volatile field (a packed long or an immutable snapshot) updated by compare-and-set,
+    // so a hot key never blocks callers; rejections are read-only.
+    //
+    // Once a key's window has fully expired its state is indistinguishable from a fresh
+    // one, and the sweeper may retire it: the field is swapped to a sentinel so a caller
+    // still holding the old object gets RETIRED and retries against the map.
+    private abstract static class KeyState {
+        static final int RETIRED = -1;
+
+        // Grants up to permits (fewer when the window is nearly full); returns the number
+        // granted or RETIRED.
+        abstract int tryAcquire(long now, Limit limit, int permits);
+        // Seconds until permits (<= maxRequests) could be granted at once; read-only.
+        abstract double retryAfter(long now, Limit limit, int permits);
+        abstract Usage usage(long now, Limit limit);
+        abstract boolean retireIfIdle(long now, Limit limit);
+        // Gives back permits granted by an earlier tryAcquire (composite rollback).
+        abstract void release(long now, Limit limit, int permits);
+
+        final Limit limit; // the limit the state was created for, used by the sweeper
+
+        KeyState(Limit limit) {
+            this.limit = limit;
+        }
+
+        static KeyState create(Limit limit) {
+            switch (limit.algorithm) {
+                case TOKEN_BUCKET: return new TokenBucketState(limit);
+                case GCRA: return new GcraState(limit);
+                case SLIDING_WINDOW_COUNTER: return new SlidingWindowCounterState(limit);
+                default: return new SlidingLogState(limit);
+            }
+        }
+    }
+
+    // Needs the whole timestamp log, so it stays on the state's own monitor.
+    private static class SlidingLogState extends KeyState {
+        private final Deque<Long> q = new ArrayDeque<>();
+        private boolean retired;
+
+        SlidingLogState(Limit limit) {
+            super(limit);
+        }
+
+        private void evict(long now, long windowNanos) {
+            long boundary = now - windowNanos;
+            while (!q.isEmpty() && q.peekFirst() <= boundary) {
+                q.pollFirst();
+            }
+        }
+
+        @Override
+        synchronized int tryAcquire(long now, Limit limit, int permits) {
+            if (retired) return RETIRED;
+            evict(now, limit.windowNanos);
+            int granted = Math.max(0, Math.min(permits, limit.maxRequests - q.size()));
+            for (int i = 0; i < granted; i++) {
+                q.addLast(now);
+            }
+            return granted;
+        }
+
+        @Override
+        synchronized double retryAfter(long now, Limit limit, int permits) {
+            evict(now, limit.windowNanos);
+            int mustExpire = q.size() + permits - limit.maxRequests;
+            if (mustExpire <= 0) return 0.0;
+            Iterator<Long> it = q.iterator();
+            long ts = 0;
+            for (int i = 0; i < mustExpire && it.hasNext(); i++) {
+                ts = it.next();
+            }
+            return Math.max(0, ts + limit.windowNanos - now) / 1e9;
+        }
+
+        @Override
+        synchronized Usage usage(long now, Limit limit) {
+            evict(now, limit.windowNanos);
+            double ttl = 0.0;
+            if (!q.isEmpty()) {
+                ttl = Math.max(0, (q.peekFirst() + limit.windowNanos - now) / 1e9);
+            }
+            return new Usage(q.size(), ttl);
+        }
+
+        @Override
+        synchronized void release(long now, Limit limit, int permits) {
+            int released = 0;
+            while (released < permits && q.removeLastOccurrence(now)) {
+                released++;
+            }
+        }
+
+        @Override
+        synchronized boolean retireIfIdle(long now, Limit limit) {
+            evict(now, limit.windowNanos);
+            if (retired || !q.isEmpty()) return false;
+            retired = true;
+            return true;
+        }
+    }
+
+    // Bucket holds up to maxRequests tokens and refills continuously over the window.
+    private static class TokenBucketState extends KeyState {
+        private static final AtomicReferenceFieldUpdater<TokenBucketState, Bucket> BUCKET =
+                AtomicReferenceFieldUpdater.newUpdater(TokenBucketState.class, Bucket.class, "bucket");
+        private static final Bucket RETIRED_BUCKET = new Bucket(0, 0);
+
+        private static final class Bucket {
+            final double tokens;
+            final long lastRefill;
+
+            Bucket(double tokens, long lastRefill) {
+                this.tokens = tokens;
+                this.lastRefill = lastRefill;
+            }
+        }
+
+        private volatile Bucket bucket; // null = never used, bucket is full
+
+        TokenBucketState(Limit limit) {
+            super(limit);
+        }
+
+        private static double available(Bucket b, long now, Limit limit) {
+            if (b == null) return limit.maxRequests;
+            double ratePerNano = limit.maxRequests / (double) limit.windowNanos;
+            return Math.min(limit.maxRequests, b.tokens + Math.max(0, now - b.lastRefill) * ratePerNano);
+        }
+
+        @Override
+        int tryAcquire(long now, Limit limit, int permits) {
+            while (true) {
+                Bucket current = bucket;
+                if (current == RETIRED_BUCKET) return RETIRED;
+                double tokens = available(current, now, limit);
+                int granted = (int) Math.min(permits, Math.floor(tokens));
+                if (granted <= 0) return 0;
+                long refillAt = current == null ? now : Math.max(now, current.lastRefill);
+                if (BUCKET.compareAndSet(this, current, new Bucket(tokens - granted, refillAt))) return granted;
+            }
+        }
+
+        @Override
+        double retryAfter(long now, Limit limit, int permits) {
+            Bucket current = bucket;
+            if (current == RETIRED_BUCKET) return 0.0;
+            double deficit = permits - available(current, now, limit);
+            return deficit <= 0 ? 0.0 : deficit * limit.windowSeconds / limit.maxRequests;
+        }
+
+        @Override
+        Usage usage(long now, Limit limit) {
+            Bucket current = bucket;
+            if (current == RETIRED_BUCKET) return new Usage(0, 0.0);
+            double missing = limit.maxRequests - available(current, now, limit);
+            double ttl = missing * limit.windowSeconds / limit.maxRequests;
+            return new Usage((int) Math.ceil(missing - 1e-9), ttl);
+        }
+
+        @Override
+        void release(long now, Limit limit, int permits) {
+            while (true) {
+                Bucket current = bucket;
+                if (current == null || current == RETIRED_BUCKET) return;
+                Bucket next = new Bucket(Math.min(limit.maxRequests, current.tokens + permits), current.lastRefill);
+                if (BUCKET.compareAndSet(this, current, next)) return;
+            }
+        }
+
+        @Override
+        boolean retireIfIdle(long now, Limit limit) {
+            Bucket current = bucket;
+            return current != RETIRED_BUCKET && available(current, now, limit) >= limit.maxRequests
+                    && BUCKET.compareAndSet(this, current, RETIRED_BUCKET);
+        }
+    }
+
+    // Theoretical arrival time (tat) advances by one emission interval per request;
+    // a request fits while tat stays within one window of now.
+    private static class GcraState extends KeyState {
+        private static final AtomicLongFieldUpdater<GcraState> TAT =
+                AtomicLongFieldUpdater.newUpdater(GcraState.class, "tat");
+        private static final long RETIRED_TAT = Long.MAX_VALUE;
+
+        private volatile long tat = Long.MIN_VALUE;
+
+        GcraState(Limit limit) {
+            super(limit);
+        }
+
+        @Override
+        int tryAcquire(long now, Limit limit, int permits) {
+            long interval = limit.windowNanos / limit.maxRequests;
+            while (true) {
+                long current = tat;
+                if (current == RETIRED_TAT) return RETIRED;
+                long base = Math.max(current, now);
+                long fit = (limit.windowNanos - (base - now)) / interval;
+                if (fit <= 0) return 0;
+                int granted = (int) Math.min(permits, fit);
+                if (TAT.compareAndSet(this, current, base + granted * interval)) return granted;
+            }
+        }
+
+        @Override
+        double retryAfter(long now, Limit limit, int permits) {
+            long interval = limit.windowNanos / limit.maxRequests;
+            long current = tat;
+            long base = current == RETIRED_TAT ? now : Math.max(current, now);
+            return Math.max(0, base + permits * interval - limit.windowNanos - now) / 1e9;
+        }
+
+        @Override
+        Usage usage(long now, Limit limit) {
+            long interval = limit.windowNanos / limit.maxRequests;
+            long current = tat;
+            long pending = current == Long.MIN_VALUE || current == RETIRED_TAT ? 0 : Math.max(0, current - now);
+            return new Usage((int) ((pending + interval - 1) / interval), pending / 1e9);
+        }
+
+        @Override
+        void release(long now, Limit limit, int permits) {
+            long interval = limit.windowNanos / limit.maxRequests;
+            while (true) {
+                long current = tat;
+                if (current == RETIRED_TAT || current == Long.MIN_VALUE) return;
+                if (TAT.compareAndSet(this, current, current - permits * interval)) return;
+            }
+        }
+
+        @Override
+        boolean retireIfIdle(long now, Limit limit) {
+            long current = tat;
+            return current != RETIRED_TAT && current <= now && TAT.compareAndSet(this, current, RETIRED_TAT);
+        }
+    }
+
+    // Approximates the sliding log by weighting the previous fixed window's count
+    // by how much of it still overlaps the sliding window.
+    private static class SlidingWindowCounterState extends KeyState {
+        private static final AtomicReferenceFieldUpdater<SlidingWindowCounterState, Window> WINDOW =
+                AtomicReferenceFieldUpdater.newUpdater(SlidingWindowCounterState.class, Window.class, "window");
+        private static final Window RETIRED_WINDOW = new Window(0, 0, 0);
+
+        private static final class Window {
+            final long start;
+            final int prevCount;
+            final int currCount;
+
+            Window(long start, int prevCount, int currCount) {
+                this.start = start;
+                this.prevCount = prevCount;
+                this.currCount = currCount;
+            }
+        }
+
+        private volatile Window window;
+
+        SlidingWindowCounterState(Limit limit) {
+            super(limit);
+        }
+
+        private static Window roll(Window w, long now, long windowNanos) {
+            if (w == null) return new Window(now, 0, 0);
+            long elapsedWindows = (now - w.start) / windowNanos;
+            if (elapsedWindows < 1) return w;
+            return new Window(w.start + elapsedWindows * windowNanos, elapsedWindows == 1 ? w.currCount : 0, 0);
+        }
+
+        private static double estimate(Window w, long now, long windowNanos) {
+            double prevWeight = 1.0 - (now - w.start) / (double) windowNanos;
+            return w.prevCount * Math.min(1.0, Math.max(0.0, prevWeight)) + w.currCount;
+        }
+
+        @Override
+        int tryAcquire(long now, Limit limit, int permits) {
+            while (true) {
+                Window current = window;
+                if (current == RETIRED_WINDOW) return RETIRED;
+                Window rolled = roll(current, now, limit.windowNanos);
+                double free = limit.maxRequests - estimate(rolled, now, limit.windowNanos);
+                int granted = (int) Math.min(permits, Math.floor(free));
+                if (granted <= 0) return 0;
+                Window next = new Window(rolled.start, rolled.prevCount, rolled.currCount + granted);
+                if (WINDOW.compareAndSet(this, current, next)) return granted;
+            }
+        }
+
+        // Solves estimate(t) <= maxRequests - permits, first inside the current window
+        // (previous count decaying) and otherwise in the next one (current count decaying).
+        @Override
+        double retryAfter(long now, Limit limit, int permits) {
+            Window current = window;
+            if (current == RETIRED_WINDOW) return 0.0;
+            long windowNanos = limit.windowNanos;
+            Window w = roll(current, now, windowNanos);
+            double target = limit.maxRequests - permits;
+            if (estimate(w, now, windowNanos) <= target) return 0.0;
+            double at;
+            if (w.currCount <= target) {
+                at = w.start + windowNanos * (1.0 - (target - w.currCount) / w.prevCount);
+            } else {
+                at = w.start + windowNanos + windowNanos * (1.0 - target / w.currCount);
+            }
+            return Math.max(0, at - now) / 1e9;
+        }
+
+        @Override
+        Usage usage(long now, Limit limit) {
+            Window current = window;
+            if (current == RETIRED_WINDOW) return new Usage(0, 0.0);
+            long windowNanos = limit.windowNanos;
+            Window w = roll(current, now, windowNanos);
+            long resetAt = w.currCount > 0 ? w.start + 2 * windowNanos
+                    : w.prevCount > 0 ? w.start + windowNanos : now;
+            return new Usage((int) Math.ceil(estimate(w, now, windowNanos) - 1e-9), Math.max(0, resetAt - now) / 1e9);
+        }
+
+        @Override
+        void release(long now, Limit limit, int permits) {
+            while (true) {
+                Window current = window;
+                if (current == null || current == RETIRED_WINDOW) return;
+                int fromCurr = Math.min(permits, current.currCount);
+                int fromPrev = Math.min(permits - fromCurr, current.prevCount); // window rolled meanwhile
+                Window next = new Window(current.start, current.prevCount - fromPrev, current.currCount - fromCurr);
+                if (WINDOW.compareAndSet(this, current, next)) return;
+            }
+        }
+
+        @Override
+        boolean retireIfIdle(long now, Limit limit) {
+            Window current = window;
+            if (current == RETIRED_WINDOW) return false;
+            Window w = roll(current, now, limit.windowNanos);
+            return w.prevCount == 0 && w.currCount == 0 && WINDOW.compareAndSet(this, current, RETIRED_WINDOW);
+        }
+    }
+
+    // Several limits applied to one request, e.g. per-user, per-tenant and global.
+    // Levels are checked in the order they are added, so add the narrowest first.
+    public static class CompositePolicy {
+        private final String name;
+        private final List<String> levelNames = new ArrayList<>();
+        private final List<Limit> levelLimits = new ArrayList<>();
+        private final List<LongAdder> rejections = new ArrayList<>();
+
+        public CompositePolicy(String name) {
+            this.name = name;
+        }
+
+        public CompositePolicy level(String levelName, int maxRequests, double windowSeconds) {
+            return level(levelName, maxRequests, windowSeconds, Algorithm.SLIDING_LOG);
+        }
+
+        public CompositePolicy level(String levelName, int maxRequests, double windowSeconds, Algorithm algorithm) {
+            levelNames.add(levelName);
+            levelLimits.add(new Limit(maxRequests, windowSeconds, algorithm));
+            rejections.add(new LongAdder());
+            return this;
+        }
+
+        private String keyFor(int level, String id) {
+            return name + "|" + levelNames.get(level) + ":" + id;
+        }
+
+        public Map<String, Long> getRejections() {
+            Map<String, Long> counts = new LinkedHashMap<>();
+            for (int i = 0; i < levelNames.size(); i++) {
+                counts.put(levelNames.get(i), rejections.get(i).sum());
+            }
+            return counts;
         }
     }
 
     public RateLimiter(int defaultMaxRequests, double defaultWindowSeconds) {
+        this(defaultMaxRequests, defaultWindowSeconds, Algorithm.SLIDING_LOG);
+    }
+
+    public RateLimiter(int defaultMaxRequests, double defaultWindowSeconds, Algorithm defaultAlgorithm) {
         this.defaultMaxRequests = defaultMaxRequests;
         this.defaultWindowSeconds = defaultWindowSeconds;
+        this.defaultAlgorithm = defaultAlgorithm;
+        this.defaultLimit = new Limit(defaultMaxRequests, defaultWindowSeconds, defaultAlgorithm);
         this.store = new ConcurrentHashMap<>();
-        this.locks = new ConcurrentHashMap<>();
         this.limits = new ConcurrentHashMap<>();
     }
 
     public void setLimit(String key, int maxRequests, double windowSeconds) {
-        limits.put(key, new Limit(maxRequests, windowSeconds));
+        setLimit(key, maxRequests, windowSeconds, defaultAlgorithm);
+    }
+
+    public void setLimit(String key, int maxRequests, double windowSeconds, Algorithm algorithm) {
+        limits.put(key, new Limit(maxRequests, windowSeconds, algorithm));
+        untrack(key); // a new limit starts from fresh state
+    }
+
+    // Drops a per-key override; the key falls back to the default limit.
+    public void removeLimit(String key) {
+        if (limits.remove(key) != null) {
+            untrack(key);
+        }
+    }
+
+    // Caps the number of tracked keys; 0 means unbounded. The cap holds exactly, also while many
+    // threads insert new keys at once.
+    public void setMaxTrackedKeys(int maxTrackedKeys, OverflowPolicy policy) {
+        this.overflowPolicy = policy;
+        this.maxTrackedKeys = maxTrackedKeys;
+    }
+
+    // How often request threads take a turn at sweeping idle keys (SWEEP_BATCH keys per turn).
+    public void setSweepInterval(double seconds) {
+        this.sweepIntervalNanos = (long) (seconds * 1e9);
     }
 
     private Limit getLimit(String key) {
-        return limits.getOrDefault(key, new Limit(defaultMaxRequests, defaultWindowSeconds));
+        Limit limit = limits.get(key);
+        return limit != null ? limit : defaultLimit;
     }
 
-    public boolean allowRequest(String key) {
-        long now = System.nanoTime();
-        Limit limit = getLimit(key);
-        double windowNanos = limit.windowSeconds * 1e9;
+    // Returns null when the key is not tracked and the cap leaves no room for it.
+    private KeyState stateFor(String key, Limit limit, long now) {
+        KeyState state = store.get(key);
+        if (state != null) return state;
+        if (!reserve(now)) {
+            overflows.increment();
+            return null;
+        }
+        boolean[] created = new boolean[1];
+        state = store.computeIfAbsent(key, k -> {
+            created[0] = true;
+            return KeyState.create(limit);
+        });
+        if (!created[0]) tracked.decrementAndGet(); // another caller inserted the key first
+        return state;
+    }
 
-        ReentrantLock lock = locks.computeIfAbsent(key, k -> new ReentrantLock());
-        lock.lock();
-        try {
-            Deque<Long> q = store.computeIfAbsent(key, k -> new ArrayDeque<>());
-            long boundary = now - (long) windowNanos;
+    // Takes one of the maxTrackedKeys places before inserting, so a burst of new keys cannot
+    // all pass a size check and grow the map past the cap. Idle keys are reclaimed by the
+    // interval sweep in acquire, never here: a flood of new keys must not turn every request
+    // into a sweep.
+    private boolean reserve(long now) {
+        while (true) {
+            int n = tracked.get(), cap = maxTrackedKeys;
+            if (cap > 0 && n >= cap) {
+                if (overflowPolicy != OverflowPolicy.EVICT_ANY || !evictIdle(now)) return false;
+                continue;
+            }
+            if (tracked.compareAndSet(n, n + 1)) return true;
+        }
+    }
 
-            while (!q.isEmpty() && q.peekFirst() <= boundary) {
-                q.pollFirst();
+    private void untrack(String key) {
+        if (store.remove(key) != null) tracked.decrementAndGet();
+    }
+
+    private boolean untrack(String key, KeyState state) {
+        if (!store.remove(key, state)) return false;
+        tracked.decrementAndGet();
+        return true;
+    }
+
+    // Evicts the first idle key among the next EVICT_SAMPLE on a rotating cursor. Only idle keys
+    // go: evicting a key with requests still in its window would reset its limit, and a client
+    // spraying new keys could then reset busy users' limits at will.
+    private boolean evictIdle(long now) {
+        synchronized (evictLock) {
+            for (int i = 0; i < EVICT_SAMPLE; i++) {
+                if (evictCursor == null || !evictCursor.hasNext()) {
+                    evictCursor = store.entrySet().iterator();
+                    if (!evictCursor.hasNext()) break;
+                }
+                Map.Entry<String, KeyState> e = evictCursor.next();
+                if (e.getValue().retireIfIdle(now, e.getValue().limit) && untrack(e.getKey(), e.getValue())) {
+                    evictions.increment();
+                    return true;
+                }
             }
+        }
+        return false;
+    }
 
-            if (q.size() < limit.maxRequests) {
-                q.addLast(now);
-                return true;
-            } else {
-                return false;
+    // Amortized sweep: at most one caller per interval scans the next SWEEP_BATCH keys.
+    private void maybeSweep(long now) {
+        if (now - nextSweepAt < 0 || !sweeping.compareAndSet(false, true)) return;
+        try {
+            sweep(now, SWEEP_BATCH);
+            nextSweepAt = now + sweepIntervalNanos;
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    // Caller must own the sweeping flag.
+    private int sweep(long now, int budget) {
+        int evicted = 0;
+        for (int scanned = 0; scanned < budget; scanned++) {
+            if (sweepCursor == null || !sweepCursor.hasNext()) {
+                sweepCursor = store.entrySet().iterator();
+                if (!sweepCursor.hasNext()) break;
             }
+            Map.Entry<String, KeyState> e = sweepCursor.next();
+            if (e.getValue().retireIfIdle(now, e.getValue().limit) && untrack(e.getKey(), e.getValue())) {
+                evicted++;
+            }
+        }
+        evictions.add(evicted);
+        long elapsed = now - rateWindowStart;
+        if (elapsed >= 1_000_000_000L) {
+            long total = evictions.sum();
+            evictionRate = (total - rateWindowEvictions) / (elapsed / 1e9);
+            rateWindowEvictions = total;
+            rateWindowStart = now;
+        }
+        return evicted;
+    }
+
+    // Full pass over every tracked key; returns how many idle keys were dropped.
+    public int evictIdleKeys() {
+        while (!sweeping.compareAndSet(false, true)) {
+            Thread.onSpinWait();
+        }
+        try {
+            sweepCursor = null;
+            return sweep(System.nanoTime(), Math.max(1, store.size()));
         } finally {
-            lock.unlock();
+            sweeping.set(false);
+        }
+    }
+
+    public int getTrackedKeyCount() {
+        return store.size();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    // Evictions per second, measured over the last completed rate window (about 1s).
+    public double getEvictionRate() {
+        return evictionRate;
+    }
+
+    public long getOverflowCount() {
+        return overflows.sum();
+    }
+
+    private int acquire(String key, Limit limit, long now, int permits) {
+        maybeSweep(now);
+        while (true) {
+            KeyState state = stateFor(key, limit, now);
+            if (state == null) return overflowPolicy == OverflowPolicy.ALLOW_UNTRACKED ? permits : 0;
+            int granted = state.tryAcquire(now, limit, permits);
+            if (granted != KeyState.RETIRED) return granted;
+            untrack(key, state); // raced with the sweeper, start from fresh state
         }
     }
 
-    public synchronized Usage getUsage(String key) {
+    public boolean allowRequest(String key) {
+        return acquire(key, getLimit(key), System.nanoTime(), 1) > 0;
+    }
+
+    // One id per policy level (use a constant for a global level). Either every level
+    // admits the request or none keeps it: permits taken from earlier levels are handed
+    // back when a later level rejects. No locks are held across levels, so there is no
+    // lock ordering to get wrong.
+    public boolean allowRequest(CompositePolicy policy, String... ids) {
+        int levels = policy.levelLimits.size();
+        if (ids.length != levels) {
+            throw new IllegalArgumentException("policy " + policy.name + " expects " + levels + " ids");
+        }
         long now = System.nanoTime();
-        Limit limit = getLimit(key);
-        double windowNanos = limit.windowSeconds * 1e9;
-        ReentrantLock lock = locks.computeIfAbsent(key, k -> new ReentrantLock());
-        lock.lock();
-        try {
-            Deque<Long> q = store.computeIfAbsent(key, k -> new ArrayDeque<>());
-            long boundary = now - (long) windowNanos;
-            while (!q.isEmpty() && q.peekFirst() <= boundary) {
-                q.pollFirst();
+        String[] keys = new String[levels];
+        for (int i = 0; i < levels; i++) {
+            keys[i] = policy.keyFor(i, ids[i]);
+            if (acquire(keys[i], policy.levelLimits.get(i), now, 1) == 0) {
+                policy.rejections.get(i).increment();
+                for (int j = i - 1; j >= 0; j--) {
+                    KeyState state = store.get(keys[j]);
+                    if (state != null) state.release(now, policy.levelLimits.get(j), 1);
+                }
+                return false;
             }
-            int count = q.size();
-            double ttl = 0.0;
-            if (!q.isEmpty()) {
-                long oldest = q.peekFirst();
-                ttl = ((oldest + windowNanos) - now) / 1e9;
-                if (ttl < 0) ttl = 0;
+        }
+        return true;
+    }
+
+    // Takes as many of the permits as the key's window allows, in one state update.
+    // Zero permits is a no-op; a negative count would hand permits back, so it is refused.
+    public Admission allowN(String key, int permits) {
+        if (permits < 0) throw new IllegalArgumentException("permits must be >= 0: " + permits);
+        if (permits == 0) {
+            return new Admission(0, 0, 0.0);
+        }
+        Limit limit = getLimit(key);
+        long now = System.nanoTime();
+        int granted = acquire(key, limit, now, permits);
+        double retryAfter = 0.0;
+        if (granted < permits) {
+            KeyState state = store.get(key);
+            if (state != null) {
+                retryAfter = state.retryAfter(now, limit, Math.min(permits - granted, limit.maxRequests));
             }
-            return new Usage(count, ttl);
-        } finally {
-            lock.unlock();
+        }
+        return new Admission(permits, granted, retryAfter);
+    }
+
+    // One request per element. Duplicate keys are folded into a single allowN call, so the
+    // first 'granted' occurrences of each key in the batch are the admitted ones.
+    public Map<String, Admission> allowAll(Collection<String> keys) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (String key : keys) {
+            counts.merge(key, 1, Integer::sum);
+        }
+        Map<String, Admission> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            result.put(e.getKey(), allowN(e.getKey(), e.getValue()));
+        }
+        return result;
+    }
+
+    public Usage getUsage(String key) {
+        KeyState state = store.get(key);
+        if (state == null) return new Usage(0, 0.0);
+        return state.usage(System.nanoTime(), state.limit); // composite keys have no entry in limits
+    }
+
+    static class Admission {
+        int requested;
+        int granted;
+        double retryAfter; // seconds until the ungranted remainder (capped at maxRequests) fits
+
+        Admission(int requested, int granted, double retryAfter) {
+            this.requested = requested;
+            this.granted = granted;
+            this.retryAfter = retryAfter;
+        }
+
+        boolean allGranted() {
+            return granted == requested;
         }
     }
 
@@ -148,7 +764,189 @@ public class RateLimiter {
         }
     }
 
+    // Heap and throughput comparison of the algorithms: java 01.DesignARateLimiter.java bench [keys]
+    static class Benchmark {
+        static long usedHeap() {
+            Runtime rt = Runtime.getRuntime();
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ignored) {}
+            }
+            return rt.totalMemory() - rt.freeMemory();
+        }
+
+        static void run(int keyCount) {
+            int perKey = 10;
+            String[] keys = new String[keyCount];
+            for (int i = 0; i < keyCount; i++) keys[i] = "key:" + i;
+
+            System.out.printf("%-24s %14s %14s %14s%n", "algorithm", "heap MB", "bytes/key", "ops/sec");
+            for (Algorithm algorithm : Algorithm.values()) {
+                long before = usedHeap();
+                RateLimiter limiter = new RateLimiter(perKey, 60.0, algorithm);
+                for (int r = 0; r < perKey; r++) {
+                    for (String k : keys) limiter.allowRequest(k);
+                }
+                long after = usedHeap();
+
+                Random rnd = new Random(42);
+                int ops = 2_000_000;
+                long start = System.nanoTime();
+                for (int i = 0; i < ops; i++) {
+                    limiter.allowRequest(keys[rnd.nextInt(keyCount)]);
+                }
+                double secs = (System.nanoTime() - start) / 1e9;
+
+                System.out.printf("%-24s %14.1f %14d %14.0f%n", algorithm,
+                        (after - before) / 1e6, (after - before) / keyCount, ops / secs);
+            }
+        }
+    }
+
+    // Multi-threaded decision throughput: java 01.DesignARateLimiter.java contention [millisPerRun]
+    static class ContentionBenchmark {
+        static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+        // Zipf(s = 1) over n keys, sampled by binary search on the cumulative distribution.
+        static class Zipf {
+            private final double[] cdf;
+
+            Zipf(int n) {
+                cdf = new double[n];
+                double sum = 0;
+                for (int i = 0; i < n; i++) {
+                    sum += 1.0 / (i + 1);
+                    cdf[i] = sum;
+                }
+                for (int i = 0; i < n; i++) cdf[i] /= sum;
+            }
+
+            int next(double u) {
+                int idx = Arrays.binarySearch(cdf, u);
+                return Math.min(cdf.length - 1, idx >= 0 ? idx : -idx - 1);
+            }
+        }
+
+        static double measure(RateLimiter limiter, String[] keys, int[] sequence, int threads, long millis)
+                throws InterruptedException {
+            LongAdder ops = new LongAdder();
+            CountDownLatch startGate = new CountDownLatch(1);
+            long[] deadline = new long[1];
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                final int offset = t * 7919;
+                workers[t] = new Thread(() -> {
+                    try {
+                        startGate.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long local = 0;
+                    int i = offset;
+                    while (System.nanoTime() < deadline[0]) {
+                        for (int j = 0; j < 256; j++) {
+                            limiter.allowRequest(keys[sequence[i++ & (sequence.length - 1)]]);
+                        }
+                        local += 256;
+                    }
+                    ops.add(local);
+                });
+                workers[t].start();
+            }
+            long start = System.nanoTime();
+            deadline[0] = start + millis * 1_000_000;
+            startGate.countDown();
+            for (Thread w : workers) w.join();
+            return ops.sum() / ((System.nanoTime() - start) / 1e9);
+        }
+
+        static void run(long millis) throws InterruptedException {
+            int keyCount = 10_000;
+            String[] keys = new String[keyCount];
+            for (int i = 0; i < keyCount; i++) keys[i] = "tenant:" + i;
+            int[] single = new int[1 << 16];
+            int[] zipfian = new int[1 << 16];
+            Zipf zipf = new Zipf(keyCount);
+            Random rnd = new Random(7);
+            for (int i = 0; i < zipfian.length; i++) zipfian[i] = zipf.next(rnd.nextDouble());
+
+            System.out.printf("%-24s %-8s", "algorithm", "keys");
+            for (int t : THREADS) System.out.printf(" %10s", t + "T ops/s");
+            System.out.println();
+            for (Algorithm algorithm : Algorithm.values()) {
+                for (int pass = 0; pass < 2; pass++) {
+                    int[] sequence = pass == 0 ? single : zipfian;
+                    System.out.printf("%-24s %-8s", algorithm, pass == 0 ? "single" : "zipf");
+                    for (int t : THREADS) {
+                        // High limit so most calls take the CAS (allow) path rather than the read-only reject
+                        RateLimiter limiter = new RateLimiter(100_000, 1.0, algorithm);
+                        System.out.printf(" %10.0f", measure(limiter, keys, sequence, t, millis));
+                    }
+                    System.out.println();
+                }
+            }
+        }
+    }
+
+    // Batch path vs looped single calls: java 01.DesignARateLimiter.java batch
+    static class BatchBenchmark {
+        static void run() {
+            int keyCount = 200;
+            int batchSize = 500;
+            int rounds = 4_000;
+            String[] keys = new String[keyCount];
+            for (int i = 0; i < keyCount; i++) keys[i] = "ingest:" + i;
+            List<String> mixed = new ArrayList<>();
+            Random rnd = new Random(3);
+            for (int i = 0; i < batchSize; i++) mixed.add(keys[rnd.nextInt(keyCount)]);
+
+            System.out.printf("%-24s %16s %16s %16s %16s%n", "algorithm",
+                    "loop same-key/s", "allowN/s", "loop mixed/s", "allowAll/s");
+            for (Algorithm algorithm : Algorithm.values()) {
+                double[] rates = new double[4];
+                for (int mode = 0; mode < 4; mode++) {
+                    RateLimiter limiter = new RateLimiter(10_000, 60.0, algorithm);
+                    long start = System.nanoTime();
+                    for (int r = 0; r < rounds; r++) {
+                        String key = keys[r % keyCount];
+                        switch (mode) {
+                            case 0:
+                                for (int i = 0; i < batchSize; i++) limiter.allowRequest(key);
+                                break;
+                            case 1:
+                                limiter.allowN(key, batchSize);
+                                break;
+                            case 2:
+                                for (String k : mixed) limiter.allowRequest(k);
+                                break;
+                            default:
+                                limiter.allowAll(mixed);
+                        }
+                    }
+                    rates[mode] = (double) rounds * batchSize / ((System.nanoTime() - start) / 1e9);
+                }
+                System.out.printf("%-24s %16.0f %16.0f %16.0f %16.0f%n",
+                        algorithm, rates[0], rates[1], rates[2], rates[3]);
+            }
+        }
+    }
+
     public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("bench")) {
+            Benchmark.run(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("batch")) {
+            BatchBenchmark.run();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("contention")) {
+            ContentionBenchmark.run(args.length > 1 ? Long.parseLong(args[1]) : 500);
+            return;
+        }
+
         RateLimiter limiter = new RateLimiter(5, 2.0); // 5 requests per 2 seconds
         String key = "user:alice";
 
@@ -165,5 +963,96 @@ public class RateLimiter {
         for (String s : results) {
             System.out.println(s);
         }
+
+        System.out.println("\n--- 5 requests per 2 seconds, 7 back-to-back attempts per algorithm ---");
+        for (Algorithm algorithm : Algorithm.values()) {
+            limiter.setLimit("user:bob", 5, 2.0, algorithm);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 7; i++) {
+                sb.append(limiter.allowRequest("user:bob") ? "A" : "R");
+            }
+            Usage usage = limiter.getUsage("user:bob");
+            System.out.println(String.format("%-24s %s | in-window=%d ttl=%.3fs",
+                    algorithm, sb, usage.count, usage.ttl));
+        }
+
+        System.out.println("\n--- batch of 8 events against 5 per 2 seconds ---");
+        for (Algorithm algorithm : Algorithm.values()) {
+            limiter.setLimit("ingest:batch", 5, 2.0, algorithm);
+            Admission first = limiter.allowN("ingest:batch", 8);
+            Admission second = limiter.allowN("ingest:batch", 3);
+            System.out.println(String.format("%-24s first %d/%d retry-after=%.3fs | second %d/%d retry-after=%.3fs",
+                    algorithm, first.granted, first.requested, first.retryAfter,
+                    second.granted, second.requested, second.retryAfter));
+        }
+        Map<String, Admission> batch = limiter.allowAll(Arrays.asList("a", "b", "a", "a", "a", "a", "a", "a"));
+        for (Map.Entry<String, Admission> e : batch.entrySet()) {
+            System.out.println("allowAll " + e.getKey() + ": " + e.getValue().granted + "/" + e.getValue().requested);
+        }
+        try {
+            limiter.allowN("ingest:batch", -2);
+            throw new AssertionError("negative permits admitted");
+        } catch (IllegalArgumentException expected) {
+            System.out.println("allowN -2: " + expected.getMessage());
+        }
+
+        System.out.println("\n--- user 3/s, tenant 4/s, global 5/s ---");
+        CompositePolicy api = new CompositePolicy("api")
+                .level("user", 3, 1.0, Algorithm.GCRA)
+                .level("tenant", 4, 1.0, Algorithm.TOKEN_BUCKET)
+                .level("global", 5, 1.0, Algorithm.SLIDING_WINDOW_COUNTER);
+        String[][] calls = {
+                {"alice", "acme"}, {"alice", "acme"}, {"alice", "acme"}, {"alice", "acme"},
+                {"bob", "acme"}, {"bob", "acme"}, {"carol", "initech"}, {"carol", "initech"}
+        };
+        for (String[] c : calls) {
+            boolean ok = limiter.allowRequest(api, c[0], c[1], "all");
+            System.out.println(c[0] + "@" + c[1] + " -> " + (ok ? "ALLOWED" : "REJECTED"));
+        }
+        System.out.println("rejections by level: " + api.getRejections());
+
+        System.out.println("\n--- idle-key eviction and key cap ---");
+        RateLimiter ipLimiter = new RateLimiter(3, 1.0, Algorithm.GCRA);
+        ipLimiter.setMaxTrackedKeys(500, OverflowPolicy.REJECT_NEW_KEYS);
+        int admitted = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (ipLimiter.allowRequest("ip:10.0.0." + i)) admitted++;
+        }
+        System.out.println("admitted=" + admitted + " tracked=" + ipLimiter.getTrackedKeyCount()
+                + " overflows=" + ipLimiter.getOverflowCount());
+        Thread.sleep(1100); // every window has expired
+        System.out.println("evicted=" + ipLimiter.evictIdleKeys() + " tracked=" + ipLimiter.getTrackedKeyCount()
+                + " evictions=" + ipLimiter.getEvictionCount());
+
+        // A client spraying one-shot keys must not evict (and so reset) a busy user's limit.
+        RateLimiter capped = new RateLimiter(3, 60.0, Algorithm.GCRA);
+        capped.setMaxTrackedKeys(100, OverflowPolicy.EVICT_ANY);
+        for (int i = 0; i < 3; i++) capped.allowRequest("user:real");
+        int realAdmitted = 0;
+        for (int i = 0; i < 20_000; i++) {
+            capped.allowRequest("spray:" + i);
+            if (i % 20 == 0 && capped.allowRequest("user:real")) realAdmitted++;
+        }
+        System.out.println("key flood: overflows=" + capped.getOverflowCount() + " tracked=" + capped.getTrackedKeyCount()
+                + " user:real admitted again=" + realAdmitted);
+
+        // Eight threads racing new keys past the cap: the map must never hold more than 500.
+        RateLimiter raced = new RateLimiter(3, 60.0, Algorithm.TOKEN_BUCKET);
+        raced.setMaxTrackedKeys(500, OverflowPolicy.REJECT_NEW_KEYS);
+        AtomicInteger peak = new AtomicInteger();
+        Thread[] racers = new Thread[8];
+        for (int t = 0; t < racers.length; t++) {
+            int id = t;
+            racers[t] = new Thread(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    raced.allowRequest("race:" + id + ":" + i);
+                    peak.accumulateAndGet(raced.getTrackedKeyCount(), Math::max);
+                }
+            });
+            racers[t].start();
+        }
+        for (Thread t : racers) t.join();
+        if (peak.get() > 500) throw new AssertionError("tracked " + peak.get() + " keys with a cap of 500");
+        System.out.println("racing inserts: peak tracked=" + peak.get() + " cap=500 overflows=" + raced.getOverflowCount());
     }
 }
@@ -6,8 +6,11 @@ import java.io.*;
 /**
  * Demonstration of Load Balancer supporting:
  * - Round Robin
- * - Weighted Round Robin
- * - Least Connections
+ * - Smooth Weighted Round Robin (nginx-style)
+ * - Least Connections (exact scan and power-of-two-choices)
+ * - Key affinity: ring hash, Maglev, jump hash and bounded-load ring hash
+ * - Peak-EWMA latency-aware routing with outlier ejection
+ * - Virtual-thread dispatch with per-backend concurrency caps
  * along with simulated health checks and concurrency-safe operations.
  */
 public class LoadBalancerDemo {
@@ -20,6 +23,25 @@ public class LoadBalancerDemo {
         AtomicInteger totalReq = new AtomicInteger(0);
         volatile boolean healthy = true;
 
+        // Scoring model, fed by request completions and health probes alike
+        static final double DECAY_NANOS = 10e9;  // peak-EWMA time constant
+        static final double ERROR_ALPHA = 0.1;
+        volatile double ewmaLatencyMs;
+        volatile double errorRate;
+        volatile int consecutiveErrors;
+        volatile long ejectedUntil;  // nanoTime, 0 = in rotation
+        int ejections;               // drives the ejection back-off
+        private long lastSampleAt;
+        private long samples;
+
+        // Per-backend concurrency cap; requests beyond it wait in FIFO order. null = unlimited.
+        volatile Semaphore slots;
+        AtomicInteger queued = new AtomicInteger(0);
+
+        // Demo knobs for the simulated backend
+        volatile int simulatedLatencyMs = 0;
+        volatile double simulatedErrorRate = 0.0;
+
         Server(String id, String addr, int weight) {
             this.id = id;
             this.addr = addr;
@@ -40,6 +62,51 @@ public class LoadBalancerDemo {
             healthy = val;
         }
 
+        // Peak EWMA: a slower sample replaces the average at once, faster samples pull it
+        // down with a weight that decays over the time since the previous sample.
+        synchronized void record(long latencyNanos, boolean error) {
+            long now = System.nanoTime();
+            double sample = latencyNanos / 1e6;
+            if (samples == 0 || sample > ewmaLatencyMs) {
+                ewmaLatencyMs = sample;
+            } else {
+                double w = Math.exp(-(now - lastSampleAt) / DECAY_NANOS);
+                ewmaLatencyMs = ewmaLatencyMs * w + sample * (1 - w);
+            }
+            errorRate = errorRate * (1 - ERROR_ALPHA) + (error ? ERROR_ALPHA : 0.0);
+            consecutiveErrors = error ? consecutiveErrors + 1 : 0;
+            lastSampleAt = now;
+            samples++;
+        }
+
+        void setMaxConcurrent(int max) {
+            slots = max > 0 ? new Semaphore(max, true) : null;
+        }
+
+        // Returns the semaphore actually acquired so a concurrent setMaxConcurrent cannot unbalance it
+        Semaphore enterBackend() {
+            Semaphore sem = slots;
+            if (sem != null) {
+                queued.incrementAndGet();
+                sem.acquireUninterruptibly();
+                queued.decrementAndGet();
+            }
+            return sem;
+        }
+
+        long samples() {
+            return samples;
+        }
+
+        boolean isEjected() {
+            return ejectedUntil != 0;
+        }
+
+        // Expected cost of sending one more request here: latency scaled by queue depth
+        double cost() {
+            return ewmaLatencyMs * (activeConn.get() + 1);
+        }
+
         Map<String, Object> snapshot() {
             Map<String, Object> m = new LinkedHashMap<>();
             m.put("id", id);
@@ -48,16 +115,191 @@ public class LoadBalancerDemo {
             m.put("activeConn", activeConn.get());
             m.put("totalReq", totalReq.get());
             m.put("healthy", healthy);
+            m.put("ewmaMs", String.format("%.1f", ewmaLatencyMs));
+            m.put("errorRate", String.format("%.2f", errorRate));
+            m.put("ejected", isEjected());
+            m.put("queued", queued.get());
             return m;
         }
     }
 
+    /* ------------------------- Routing Snapshot -------------------------- */
+    // Immutable view of the healthy servers, rebuilt only when membership or health
+    // changes, so selection never allocates or locks.
+    static class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new Server[0]);
+        static final int MAX_SEQUENCE = 1 << 20;
+
+        static final int VNODES = 160;            // ring points per server
+        static final int OWNER_BITS = 20;         // low bits of a ring point hold the owner index
+        static final int MAGLEV_SIZE = 65537;     // prime, well above the backend count
+
+        final Server[] healthy;
+        private volatile int[] swrrSequence; // built on first smooth-WRR pick
+        private volatile long[] ring;     // built on first keyed lookup
+        private volatile int[] maglev;
+
+        Snapshot(Server[] healthy) {
+            this.healthy = healthy;
+        }
+
+        // Indices into healthy, one full smooth-WRR cycle
+        int[] swrrSequence() {
+            int[] seq = swrrSequence;
+            if (seq == null) {
+                seq = smoothWeightedSequence(healthy);
+                swrrSequence = seq;
+            }
+            return seq;
+        }
+
+        // Sorted ring points. Each point's position comes from hash(id#v), so it does not move
+        // when other servers join or leave; the owner index is packed into the low bits.
+        long[] ring() {
+            long[] r = ring;
+            if (r == null) {
+                long mask = (1L << OWNER_BITS) - 1;
+                r = new long[healthy.length * VNODES];
+                for (int i = 0; i < healthy.length; i++)
+                    for (int v = 0; v < VNODES; v++)
+                        r[i * VNODES + v] = (hash64(healthy[i].id + "#" + v) & ~mask) | i;
+                Arrays.sort(r);
+                ring = r;
+            }
+            return r;
+        }
+
+        // Index of the first ring point at or after h, wrapping around.
+        static int ringIndex(long[] r, long h) {
+            int idx = Arrays.binarySearch(r, h);
+            if (idx < 0) idx = -idx - 1;
+            return idx == r.length ? 0 : idx;
+        }
+
+        static int ringOwner(long point) {
+            return (int) (point & ((1L << OWNER_BITS) - 1));
+        }
+
+        // Maglev lookup table: every server walks its own permutation of the slots
+        // (offset + j * skip) and the servers take turns claiming the next free slot.
+        int[] maglev() {
+            int[] table = maglev;
+            if (table == null) {
+                int n = healthy.length;
+                table = new int[MAGLEV_SIZE];
+                Arrays.fill(table, -1);
+                long[] offset = new long[n];
+                long[] skip = new long[n];
+                long[] next = new long[n];
+                for (int i = 0; i < n; i++) {
+                    offset[i] = Long.remainderUnsigned(hash64(healthy[i].id), MAGLEV_SIZE);
+                    skip[i] = Long.remainderUnsigned(hash64(healthy[i].id + "#skip"), MAGLEV_SIZE - 1) + 1;
+                }
+                int filled = 0;
+                while (filled < MAGLEV_SIZE) {
+                    for (int i = 0; i < n && filled < MAGLEV_SIZE; i++) {
+                        int c = (int) ((offset[i] + next[i] * skip[i]) % MAGLEV_SIZE);
+                        while (table[c] >= 0) {
+                            next[i]++;
+                            c = (int) ((offset[i] + next[i] * skip[i]) % MAGLEV_SIZE);
+                        }
+                        table[c] = i;
+                        next[i]++;
+                        filled++;
+                    }
+                }
+                maglev = table;
+            }
+            return table;
+        }
+
+        // Runs nginx's smooth weighted round robin once over a whole cycle: every pick adds
+        // each weight to its server's current value, takes the largest and subtracts the
+        // total from it. Weights are reduced by their gcd (and scaled down if the cycle
+        // would still be huge) so the table stays small.
+        static int[] smoothWeightedSequence(Server[] servers) {
+            int n = servers.length;
+            if (n == 0) return new int[0];
+            int[] weights = new int[n];
+            int g = 0;
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                weights[i] = servers[i].weight;
+                g = gcd(g, weights[i]);
+                total += weights[i];
+            }
+            total /= g;
+            double scale = total > MAX_SEQUENCE ? (double) MAX_SEQUENCE / total : 1.0;
+            total = 0;
+            for (int i = 0; i < n; i++) {
+                weights[i] = Math.max(1, (int) (weights[i] / g * scale));
+                total += weights[i];
+            }
+            int[] sequence = new int[(int) total];
+            long[] current = new long[n];
+            for (int k = 0; k < sequence.length; k++) {
+                int best = 0;
+                for (int i = 0; i < n; i++) {
+                    current[i] += weights[i];
+                    if (current[i] > current[best]) best = i;
+                }
+                current[best] -= total;
+                sequence[k] = best;
+            }
+            return sequence;
+        }
+
+        // FNV-1a over the chars, finished with the murmur3 64-bit mixer
+        static long hash64(String key) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                h ^= key.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+
+        // Lamping & Veach jump consistent hash: growing from n to n+1 buckets moves 1/(n+1) of keys.
+        static int jumpHash(long key, int buckets) {
+            long b = -1, j = 0;
+            while (j < buckets) {
+                b = j;
+                key = key * 2862933555777941757L + 1;
+                j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+            }
+            return (int) b;
+        }
+
+        static int gcd(int a, int b) {
+            while (b != 0) {
+                int t = a % b;
+                a = b;
+                b = t;
+            }
+            return a;
+        }
+    }
+
     /* ------------------------ Load Balancer Class ------------------------ */
     static class LoadBalancer {
         ConcurrentHashMap<String, Server> servers = new ConcurrentHashMap<>();
-        String algo;
+        volatile String algo;
         AtomicInteger rrIndex = new AtomicInteger(0);
-        List<String> weightedQueue = Collections.synchronizedList(new ArrayList<>());
+        volatile Snapshot snapshot = Snapshot.EMPTY;
+        AtomicInteger inFlight = new AtomicInteger(0);
+
+        // Outlier ejection settings
+        int ejectAfterConsecutiveErrors = 5;
+        double ejectAtErrorRate = 0.5;
+        double latencyOutlierFactor = 3.0;   // vs the mean EWMA of the other servers
+        long baseEjectionMillis = 3000;      // multiplied by the server's ejection count
+        double maxEjectedFraction = 0.5;
+        volatile double boundedLoadFactor = 1.25; // bounded_load spills past c * mean active connections
         Random rand = new Random();
 
         LoadBalancer(String algo) {
@@ -66,12 +308,20 @@ public class LoadBalancerDemo {
 
         void addServer(Server s) {
             servers.put(s.id, s);
-            rebuildWeightedQueue();
+            rebuildSnapshot();
         }
 
         void removeServer(String id) {
             servers.remove(id);
-            rebuildWeightedQueue();
+            rebuildSnapshot();
+        }
+
+        void markHealthy(String id, boolean val) {
+            Server s = servers.get(id);
+            if (s != null && s.healthy != val) {
+                s.markHealthy(val);
+                rebuildSnapshot();
+            }
         }
 
         void setAlgorithm(String algo) {
@@ -80,78 +330,255 @@ public class LoadBalancerDemo {
         }
 
         List<Server> healthyServers() {
+            return Arrays.asList(snapshot.healthy);
+        }
+
+        // Synchronized only against other rebuilds; readers just load the volatile field.
+        synchronized void rebuildSnapshot() {
             List<Server> list = new ArrayList<>();
             for (Server s : servers.values())
-                if (s.healthy) list.add(s);
-            return list;
+                if (s.healthy && !s.isEjected()) list.add(s);
+            list.sort(Comparator.comparing(s -> s.id)); // stable order across rebuilds
+            snapshot = new Snapshot(list.toArray(new Server[0]));
         }
 
-        void rebuildWeightedQueue() {
-            weightedQueue.clear();
-            for (Server s : servers.values()) {
-                if (s.healthy) {
-                    int count = Math.min(s.weight, 10); // capped for demo
-                    for (int i = 0; i < count; i++)
-                        weightedQueue.add(s.id);
-                }
-            }
+        Server selectServer() {
+            return selectServer(null);
         }
 
-        Server selectServer() {
-            List<Server> healthy = healthyServers();
-            if (healthy.isEmpty()) return null;
+        // key is the affinity key (session, user...) for the hashing modes; other modes ignore it
+        Server selectServer(String key) {
+            Snapshot snap = snapshot;
+            Server[] healthy = snap.healthy;
+            int n = healthy.length;
+            if (n == 0) return null;
+
+            String mode = algo;
+            if (key == null && (mode.equals("ring_hash") || mode.equals("maglev")
+                    || mode.equals("jump_hash") || mode.equals("bounded_load"))) {
+                mode = "random";
+            }
+
+            switch (mode) {
+                case "ring_hash": {
+                    long[] ring = snap.ring();
+                    return healthy[Snapshot.ringOwner(ring[Snapshot.ringIndex(ring, Snapshot.hash64(key))])];
+                }
+
+                case "maglev": {
+                    int[] table = snap.maglev();
+                    return healthy[table[(int) Long.remainderUnsigned(Snapshot.hash64(key), table.length)]];
+                }
+
+                case "jump_hash":
+                    // Buckets are positions in the id-sorted snapshot, so only servers joining
+                    // at the end of that order move the minimal 1/n of keys.
+                    return healthy[Snapshot.jumpHash(Snapshot.hash64(key), n)];
+
+                case "peak_ewma": {
+                    // P2C on EWMA latency x (active + 1); servers with no samples cost 0 and get probed first
+                    if (n == 1) return healthy[0];
+                    ThreadLocalRandom r = ThreadLocalRandom.current();
+                    int a = r.nextInt(n);
+                    int b = r.nextInt(n - 1);
+                    if (b >= a) b++;
+                    return healthy[a].cost() <= healthy[b].cost() ? healthy[a] : healthy[b];
+                }
+
+                case "bounded_load": {
+                    // Consistent hashing with bounded loads: walk the ring from the key's point
+                    // and take the first server still under ceil(c * mean) active connections.
+                    long[] ring = snap.ring();
+                    int cap = (int) Math.ceil(boundedLoadFactor * (inFlight.get() + 1) / n);
+                    int start = Snapshot.ringIndex(ring, Snapshot.hash64(key));
+                    for (int k = 0; k < ring.length; k++) {
+                        Server s = healthy[Snapshot.ringOwner(ring[(start + k) % ring.length])];
+                        if (s.activeConn.get() < cap) return s;
+                    }
+                    return healthy[Snapshot.ringOwner(ring[start])];
+                }
 
-            switch (algo) {
                 case "round_robin":
-                    int idx = rrIndex.getAndIncrement() % healthy.size();
-                    return healthy.get(idx);
+                    return healthy[Math.floorMod(rrIndex.getAndIncrement(), n)];
 
                 case "weighted_round_robin":
-                    if (weightedQueue.isEmpty()) rebuildWeightedQueue();
-                    if (weightedQueue.isEmpty()) return null;
-                    String sid = weightedQueue.remove(0);
-                    weightedQueue.add(sid);
-                    return servers.get(sid);
+                    int[] seq = snap.swrrSequence();
+                    return healthy[seq[Math.floorMod(rrIndex.getAndIncrement(), seq.length)]];
+
+                case "least_connections": {
+                    Server best = healthy[0];
+                    for (int i = 1; i < n; i++)
+                        if (healthy[i].activeConn.get() < best.activeConn.get()) best = healthy[i];
+                    return best;
+                }
 
-                case "least_connections":
-                    return Collections.min(healthy, Comparator.comparingInt(s -> s.activeConn.get()));
+                case "p2c": {
+                    // Power of two choices: sample two distinct servers, keep the less loaded one
+                    if (n == 1) return healthy[0];
+                    ThreadLocalRandom r = ThreadLocalRandom.current();
+                    int a = r.nextInt(n);
+                    int b = r.nextInt(n - 1);
+                    if (b >= a) b++;
+                    return healthy[a].activeConn.get() <= healthy[b].activeConn.get() ? healthy[a] : healthy[b];
+                }
 
                 default:
-                    return healthy.get(rand.nextInt(healthy.size()));
+                    return healthy[ThreadLocalRandom.current().nextInt(n)];
             }
         }
 
         void routeRequest(int reqId, ExecutorService pool) {
-            Server s = selectServer();
+            routeRequest(reqId, null, pool);
+        }
+
+        // Completion hook for routed requests and health probes
+        void recordResult(Server s, long latencyNanos, boolean error) {
+            s.record(latencyNanos, error);
+            if (s.isEjected()) return;
+            if (s.consecutiveErrors >= ejectAfterConsecutiveErrors) {
+                eject(s, s.consecutiveErrors + " consecutive errors");
+            } else if (s.samples() >= 10 && s.errorRate >= ejectAtErrorRate) {
+                eject(s, String.format("error rate %.2f", s.errorRate));
+            }
+        }
+
+        synchronized boolean eject(Server s, String reason) {
+            if (s.isEjected()) return false;
+            int ejected = 0;
+            for (Server o : servers.values())
+                if (o.isEjected()) ejected++;
+            if (ejected + 1 > maxEjectedFraction * servers.size()) return false; // keep enough capacity
+            s.ejections++;
+            s.ejectedUntil = System.nanoTime() + baseEjectionMillis * s.ejections * 1_000_000;
+            System.out.println("[Outlier] " + s.id + " ejected for " + baseEjectionMillis * s.ejections + "ms (" + reason + ")");
+            rebuildSnapshot();
+            return true;
+        }
+
+        // Re-admits servers whose ejection expired and ejects latency outliers; run by the health check.
+        boolean reviewOutliers() {
+            long now = System.nanoTime();
+            boolean changed = false;
+            for (Server s : servers.values()) {
+                if (s.isEjected() && now - s.ejectedUntil >= 0) {
+                    s.ejectedUntil = 0;
+                    s.consecutiveErrors = 0;
+                    s.errorRate = 0.0;
+                    changed = true;
+                    System.out.println("[Outlier] " + s.id + " re-admitted");
+                }
+            }
+            Server[] active = snapshot.healthy;
+            if (active.length > 2) {
+                double sum = 0;
+                for (Server s : active) sum += s.ewmaLatencyMs;
+                for (Server s : active) {
+                    double othersMean = (sum - s.ewmaLatencyMs) / (active.length - 1);
+                    if (s.samples() >= 10 && othersMean > 0 && s.ewmaLatencyMs > latencyOutlierFactor * othersMean)
+                        eject(s, String.format("ewma %.0fms vs %.0fms", s.ewmaLatencyMs, othersMean));
+                }
+            }
+            return changed;
+        }
+
+        // One virtual thread per request on Java 21+. Looked up reflectively so the file still
+        // compiles on older JDKs, where it falls back to a bounded platform pool.
+        static ExecutorService newDispatchExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newFixedThreadPool(256);
+            }
+        }
+
+        // Routes and runs one simulated backend call on executor. Completes with the routing
+        // latency: submit until the backend slot was obtained (scheduling + per-backend queueing).
+        CompletableFuture<Long> dispatch(String key, ExecutorService executor, long serviceMillis) {
+            long submitted = System.nanoTime();
+            Server s = selectServer(key);
+            if (s == null) {
+                CompletableFuture<Long> none = new CompletableFuture<>();
+                none.completeExceptionally(new IllegalStateException("no healthy servers"));
+                return none;
+            }
+            s.acquire();
+            inFlight.incrementAndGet();
+            try {
+                return CompletableFuture.supplyAsync(() -> {
+                    Semaphore sem = s.enterBackend();
+                    long start = System.nanoTime();
+                    boolean error = false;
+                    try {
+                        Thread.sleep(serviceMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        error = true;
+                    } finally {
+                        if (sem != null) sem.release();
+                        s.release();
+                        inFlight.decrementAndGet();
+                    }
+                    recordResult(s, System.nanoTime() - start, error);
+                    return start - submitted;
+                }, executor);
+            } catch (RejectedExecutionException e) { // the task never ran: it holds no backend slot
+                s.release();
+                inFlight.decrementAndGet();
+                CompletableFuture<Long> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(e);
+                return rejected;
+            }
+        }
+
+        void routeRequest(int reqId, String key, ExecutorService pool) {
+            Server s = selectServer(key);
             if (s == null) {
                 System.out.println("[LB] No healthy servers for req " + reqId);
                 return;
             }
             s.acquire();
+            inFlight.incrementAndGet();
             System.out.println("[LB] Routed req " + reqId + " -> " + s.id + " (active=" + s.activeConn.get() + ")");
-            pool.submit(() -> {
-                try {
-                    Thread.sleep(100 + rand.nextInt(400));
-                } catch (InterruptedException ignored) {}
+            try {
+                pool.submit(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        Thread.sleep(100 + rand.nextInt(400) + s.simulatedLatencyMs);
+                    } catch (InterruptedException ignored) {}
+                    boolean error = ThreadLocalRandom.current().nextDouble() < s.simulatedErrorRate;
+                    s.release();
+                    inFlight.decrementAndGet();
+                    recordResult(s, System.nanoTime() - start, error);
+                    System.out.println("[Server " + s.id + "] Completed req " + reqId + " (active=" + s.activeConn.get() + ")");
+                });
+            } catch (RejectedExecutionException e) {
                 s.release();
-                System.out.println("[Server " + s.id + "] Completed req " + reqId + " (active=" + s.activeConn.get() + ")");
-            });
+                inFlight.decrementAndGet();
+                System.out.println("[LB] Req " + reqId + " rejected by the pool");
+            }
         }
 
         void healthCheckCycle() {
             new Thread(() -> {
                 while (true) {
+                    boolean changed = false;
                     for (Server s : servers.values()) {
                         double p = Math.random();
-                        if (p < 0.02) {
+                        // Simulated probe; its outcome feeds the same EWMA/error model as real traffic
+                        long probeNanos = (5 + s.simulatedLatencyMs / 10) * 1_000_000L;
+                        recordResult(s, probeNanos, p < 0.02 || ThreadLocalRandom.current().nextDouble() < s.simulatedErrorRate);
+                        if (s.healthy && p < 0.02) {
                             s.markHealthy(false);
+                            changed = true;
                             System.out.println("[Health] " + s.id + " marked UNHEALTHY");
                         } else if (!s.healthy && p < 0.3) {
                             s.markHealthy(true);
+                            changed = true;
                             System.out.println("[Health] " + s.id + " marked HEALTHY");
                         }
                     }
-                    rebuildWeightedQueue();
+                    if (reviewOutliers()) changed = true;
+                    if (changed) rebuildSnapshot();
                     try { Thread.sleep(1000); } catch (InterruptedException ignored) {}
                 }
             }).start();
@@ -163,8 +590,149 @@ public class LoadBalancerDemo {
         }
     }
 
+    /* ----------------------------- Benchmark ----------------------------- */
+    // Selection throughput: java 02.DesignALoadBalancerSystem.java bench [backends] [threads] [millis]
+    static class Benchmark {
+        static void run(int backends, int threads, long millis) throws InterruptedException {
+            LoadBalancer lb = new LoadBalancer("round_robin");
+            for (int i = 0; i < backends; i++)
+                lb.addServer(new Server(String.format("s%04d", i), "10.0." + (i / 256) + "." + (i % 256), 1 + i % 10));
+
+            System.out.printf("%d backends, %d routing threads%n", backends, threads);
+            for (String algo : new String[]{"round_robin", "weighted_round_robin", "least_connections", "p2c", "peak_ewma", "random"}) {
+                lb.setAlgorithm(algo);
+                LongAdder ops = new LongAdder();
+                long deadline = System.nanoTime() + millis * 1_000_000;
+                Thread[] workers = new Thread[threads];
+                for (int t = 0; t < threads; t++) {
+                    workers[t] = new Thread(() -> {
+                        long local = 0;
+                        while (System.nanoTime() < deadline) {
+                            for (int i = 0; i < 128; i++) {
+                                Server s = lb.selectServer();
+                                s.acquire();
+                                s.release();
+                            }
+                            local += 128;
+                        }
+                        ops.add(local);
+                    });
+                    workers[t].start();
+                }
+                for (Thread w : workers) w.join();
+                System.out.printf("%-22s %14.0f selections/sec%n", algo, ops.sum() / (millis / 1000.0));
+            }
+        }
+    }
+
+    // Routing latency under a burst of in-flight requests:
+    // java 02.DesignALoadBalancerSystem.java dispatch [inFlight] [backends] [maxConcurrentPerBackend] [serviceMillis]
+    static class DispatchBenchmark {
+        static long percentile(long[] sorted, double q) {
+            return sorted[Math.max(0, (int) Math.ceil(q * sorted.length) - 1)];
+        }
+
+        static void run(int requests, int backends, int maxConcurrent, long serviceMillis) throws Exception {
+            LoadBalancer lb = new LoadBalancer("p2c");
+            for (int i = 0; i < backends; i++) {
+                Server s = new Server("s" + i, "10.0.0." + i, 1);
+                s.setMaxConcurrent(maxConcurrent);
+                lb.addServer(s);
+            }
+            ExecutorService executor = LoadBalancer.newDispatchExecutor();
+            System.out.printf("%d requests, %d backends x %d slots, %dms service time, executor=%s%n",
+                    requests, backends, maxConcurrent, serviceMillis, executor.getClass().getSimpleName());
+
+            long start = System.nanoTime();
+            List<CompletableFuture<Long>> futures = new ArrayList<>(requests);
+            for (int i = 0; i < requests; i++)
+                futures.add(lb.dispatch(null, executor, serviceMillis));
+            int peakInFlight = lb.inFlight.get();
+            long[] latencies = new long[requests];
+            for (int i = 0; i < requests; i++)
+                latencies[i] = futures.get(i).get();
+            double secs = (System.nanoTime() - start) / 1e9;
+            executor.shutdown();
+
+            Arrays.sort(latencies);
+            System.out.printf("in-flight after submit=%d, wall=%.2fs, throughput=%.0f req/s%n",
+                    peakInFlight, secs, requests / secs);
+            System.out.printf("routing latency p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms%n",
+                    percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.99) / 1e6,
+                    percentile(latencies, 0.999) / 1e6, latencies[requests - 1] / 1e6);
+
+            // A rejected submit must not leave the request counted against its backend.
+            if (!lb.dispatch(null, executor, serviceMillis).isCompletedExceptionally() || lb.inFlight.get() != 0
+                    || lb.servers.values().stream().anyMatch(s -> s.activeConn.get() != 0)) {
+                throw new AssertionError("rejected dispatch left a connection counted");
+            }
+            System.out.println("rejected after shutdown: in-flight and active connections back to 0");
+        }
+    }
+
+    // Lookup latency and remap fraction of the key-affinity modes:
+    // java 02.DesignALoadBalancerSystem.java affinity [servers] [keys]
+    static class AffinityCheck {
+        static Map<String, String> assign(LoadBalancer lb, String[] keys) {
+            Map<String, String> owners = new HashMap<>();
+            for (String k : keys) owners.put(k, lb.selectServer(k).id);
+            return owners;
+        }
+
+        static double moved(Map<String, String> before, Map<String, String> after) {
+            int moved = 0;
+            for (Map.Entry<String, String> e : before.entrySet())
+                if (!e.getValue().equals(after.get(e.getKey()))) moved++;
+            return (double) moved / before.size();
+        }
+
+        static void run(int servers, int keyCount) {
+            String[] keys = new String[keyCount];
+            for (int i = 0; i < keyCount; i++) keys[i] = "session-" + i;
+            System.out.printf("%d servers, %d keys, ideal remap on add = %.4f%n", servers, keyCount, 1.0 / (servers + 1));
+            System.out.printf("%-14s %12s %12s %12s%n", "algorithm", "ns/lookup", "add remap", "remove remap");
+            for (String algo : new String[]{"ring_hash", "maglev", "jump_hash"}) {
+                LoadBalancer lb = new LoadBalancer(algo);
+                for (int i = 0; i < servers; i++)
+                    lb.addServer(new Server(String.format("s%04d", i), "10.0.0." + i, 1));
+                Map<String, String> base = assign(lb, keys); // also warms the lazy tables
+
+                long start = System.nanoTime();
+                int rounds = 5;
+                for (int r = 0; r < rounds; r++)
+                    for (String k : keys) lb.selectServer(k);
+                double nsPerLookup = (System.nanoTime() - start) / (double) (rounds * keyCount);
+
+                lb.addServer(new Server(String.format("s%04d", servers), "10.0.1.0", 1));
+                double addRemap = moved(base, assign(lb, keys));
+                lb.removeServer(String.format("s%04d", servers));
+                lb.removeServer(String.format("s%04d", servers / 2));
+                double removeRemap = moved(base, assign(lb, keys));
+                System.out.printf("%-14s %12.1f %12.4f %12.4f%n", algo, nsPerLookup, addRemap, removeRemap);
+            }
+        }
+    }
+
     /* ----------------------------- Main Demo ----------------------------- */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("bench")) {
+            Benchmark.run(args.length > 1 ? Integer.parseInt(args[1]) : 1000,
+                    args.length > 2 ? Integer.parseInt(args[2]) : 32,
+                    args.length > 3 ? Long.parseLong(args[3]) : 1000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("dispatch")) {
+            DispatchBenchmark.run(args.length > 1 ? Integer.parseInt(args[1]) : 100_000,
+                    args.length > 2 ? Integer.parseInt(args[2]) : 10,
+                    args.length > 3 ? Integer.parseInt(args[3]) : 10_000,
+                    args.length > 4 ? Long.parseLong(args[4]) : 50);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("affinity")) {
+            AffinityCheck.run(args.length > 1 ? Integer.parseInt(args[1]) : 100,
+                    args.length > 2 ? Integer.parseInt(args[2]) : 200_000);
+            return;
+        }
         LoadBalancer lb = new LoadBalancer("round_robin");
 
         lb.addServer(new Server("s1", "10.0.0.1", 1));
@@ -184,12 +752,33 @@ public class LoadBalancerDemo {
                 lb.setAlgorithm("least_connections");
                 System.out.println("\n--- Switched to Least Connections ---\n");
             }
+            if (i == 22) {
+                lb.setAlgorithm("p2c");
+                System.out.println("\n--- Switched to Power of Two Choices ---\n");
+            }
             lb.routeRequest(i, pool);
             try { Thread.sleep(80); } catch (InterruptedException ignored) {}
         }
 
+        lb.setAlgorithm("bounded_load");
+        System.out.println("\n--- Switched to Bounded-Load Ring Hash (sticky sessions) ---\n");
+        String[] sessions = {"alice", "bob", "alice", "carol", "alice", "bob"};
+        for (int i = 0; i < sessions.length; i++) {
+            lb.routeRequest(25 + i, "session:" + sessions[i], pool);
+            try { Thread.sleep(80); } catch (InterruptedException ignored) {}
+        }
+
+        lb.setAlgorithm("peak_ewma");
+        System.out.println("\n--- Switched to Peak EWMA (s3 slow, s1 failing) ---\n");
+        lb.servers.get("s3").simulatedLatencyMs = 1500;
+        lb.servers.get("s1").simulatedErrorRate = 0.9;
+        for (int i = 0; i < 30; i++) {
+            lb.routeRequest(31 + i, pool);
+            try { Thread.sleep(80); } catch (InterruptedException ignored) {}
+        }
+
         pool.shutdown();
-        try { pool.awaitTermination(3, TimeUnit.SECONDS); } catch (InterruptedException ignored) {}
+        try { pool.awaitTermination(5, TimeUnit.SECONDS); } catch (InterruptedException ignored) {}
 
         System.out.println("\nFinal Snapshot:");
         lb.snapshot();
@@ -13,10 +13,23 @@
 /* -----------------------------------------------------------------------  */
 
 import java.io.*;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
 
 /* ------------------------ ENUM for Log Levels ------------------------ */
 enum Level {
@@ -35,6 +48,10 @@ class LogRecord {
     long timestamp;
     long seq;
 
+    LogRecord() {
+        // empty ring-buffer slot, filled in place by AsyncDispatcher
+    }
+
     LogRecord(String name, Level lvl, String msg, Map<String, Object> meta) {
         this.loggerName = name;
         this.level = lvl;
@@ -45,27 +62,220 @@ class LogRecord {
     }
 }
 
+/* ------------------------ LineBuffer ------------------------ */
+// Growable UTF-8 byte buffer. Formatter keeps one per thread and reuses it for every
+// record, so encoding a line allocates nothing once the buffer has grown to size.
+class LineBuffer {
+    private static final DateTimeFormatter SECOND_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss").withZone(ZoneOffset.UTC);
+
+    byte[] buf = new byte[512];
+    int len;
+    private long cachedSecond = Long.MIN_VALUE;
+    private byte[] cachedSecondBytes;
+
+    void reset() {
+        len = 0;
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+        }
+    }
+
+    LineBuffer append(byte b) {
+        ensure(1);
+        buf[len++] = b;
+        return this;
+    }
+
+    LineBuffer append(byte[] bytes) {
+        return append(bytes, 0, bytes.length);
+    }
+
+    LineBuffer append(byte[] bytes, int off, int n) {
+        ensure(n);
+        System.arraycopy(bytes, off, buf, len, n);
+        len += n;
+        return this;
+    }
+
+    LineBuffer appendUtf8(CharSequence s) {
+        int n = s.length();
+        ensure(n * 3);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf[len++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[len++] = (byte) (0xC0 | (c >> 6));
+                buf[len++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[len++] = (byte) (0xF0 | (cp >> 18));
+                buf[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[len++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                buf[len++] = (byte) (0xE0 | (c >> 12));
+                buf[len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[len++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return this;
+    }
+
+    LineBuffer appendLong(long v) {
+        if (v == Long.MIN_VALUE) return appendUtf8("-9223372036854775808");
+        ensure(20);
+        if (v < 0) {
+            buf[len++] = '-';
+            v = -v;
+        }
+        int start = len;
+        do {
+            buf[len++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int i = start, j = len - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+        return this;
+    }
+
+    // yyyy-MM-ddTHH:mm:ss.SSSZ in UTC; the part up to the seconds is formatted once per second.
+    LineBuffer appendTimestamp(long millis) {
+        long second = Math.floorDiv(millis, 1000);
+        if (second != cachedSecond) {
+            cachedSecondBytes = SECOND_FORMAT.format(Instant.ofEpochSecond(second)).getBytes(StandardCharsets.US_ASCII);
+            cachedSecond = second;
+        }
+        append(cachedSecondBytes);
+        int ms = Math.floorMod(millis, 1000);
+        ensure(5);
+        buf[len++] = '.';
+        buf[len++] = (byte) ('0' + ms / 100);
+        buf[len++] = (byte) ('0' + ms / 10 % 10);
+        buf[len++] = (byte) ('0' + ms % 10);
+        buf[len++] = 'Z';
+        return this;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, len);
+    }
+}
+
 /* ------------------------ Formatter ------------------------ */
 class Formatter {
-    private final String fmt;
+    private static final int LITERAL = 0, ASCTIME = 1, LEVEL = 2, NAME = 3, MSG = 4, META = 5;
+    private static final String[] PLACEHOLDERS = {null, "{asctime}", "{level}", "{name}", "{msg}", "{meta}"};
+    private static final byte[][] LEVEL_NAMES = new byte[Level.values().length][];
+    private static final ThreadLocal<LineBuffer> BUFFER = ThreadLocal.withInitial(LineBuffer::new);
+
+    static {
+        for (Level l : Level.values()) LEVEL_NAMES[l.ordinal()] = l.name().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private final int[] kinds;        // template compiled once into literal / placeholder segments
+    private final byte[][] literals;
 
     Formatter(String fmt) {
-        this.fmt = fmt;
+        List<Integer> kindList = new ArrayList<>();
+        List<byte[]> literalList = new ArrayList<>();
+        int i = 0;
+        StringBuilder literal = new StringBuilder();
+        while (i < fmt.length()) {
+            int kind = LITERAL;
+            for (int k = ASCTIME; k <= META; k++) {
+                if (fmt.startsWith(PLACEHOLDERS[k], i)) kind = k;
+            }
+            if (kind == LITERAL) {
+                literal.append(fmt.charAt(i++));
+                continue;
+            }
+            if (literal.length() > 0) {
+                kindList.add(LITERAL);
+                literalList.add(literal.toString().getBytes(StandardCharsets.UTF_8));
+                literal.setLength(0);
+            }
+            kindList.add(kind);
+            literalList.add(null);
+            i += PLACEHOLDERS[kind].length();
+        }
+        if (literal.length() > 0) {
+            kindList.add(LITERAL);
+            literalList.add(literal.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        this.kinds = kindList.stream().mapToInt(Integer::intValue).toArray();
+        this.literals = literalList.toArray(new byte[0][]);
     }
 
     String format(LogRecord record) {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-        String ts = sdf.format(new Date(record.timestamp));
-        StringBuilder metaStr = new StringBuilder();
-        for (Map.Entry<String, Object> e : record.metadata.entrySet()) {
-            metaStr.append(e.getKey()).append("=").append(e.getValue()).append(" ");
-        }
-        return fmt
-                .replace("{asctime}", ts)
-                .replace("{level}", record.level.name())
-                .replace("{name}", record.loggerName)
-                .replace("{msg}", record.message)
-                .replace("{meta}", metaStr.toString().trim());
+        LineBuffer b = encode(record);
+        return new String(b.buf, 0, b.len, StandardCharsets.UTF_8);
+    }
+
+    // Encodes into this thread's buffer; the contents are valid until the next encode on the thread.
+    LineBuffer encode(LogRecord record) {
+        LineBuffer b = BUFFER.get();
+        b.reset();
+        for (int i = 0; i < kinds.length; i++) {
+            switch (kinds[i]) {
+                case ASCTIME: b.appendTimestamp(record.timestamp); break;
+                case LEVEL: b.append(LEVEL_NAMES[record.level.ordinal()]); break;
+                case NAME: b.appendUtf8(record.loggerName); break;
+                case MSG: b.appendUtf8(record.message); break;
+                case META: appendMeta(b, record.metadata); break;
+                default: b.append(literals[i]);
+            }
+        }
+        return b;
+    }
+
+    private static void appendMeta(LineBuffer b, Map<String, Object> meta) {
+        boolean first = true;
+        for (Map.Entry<String, Object> e : meta.entrySet()) {
+            if (!first) b.append((byte) ' ');
+            first = false;
+            b.appendUtf8(e.getKey()).append((byte) '=');
+            Object v = e.getValue();
+            if (v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte) {
+                b.appendLong(((Number) v).longValue());
+            } else if (v instanceof CharSequence) {
+                b.appendUtf8((CharSequence) v);
+            } else {
+                b.appendUtf8(String.valueOf(v));
+            }
+        }
+    }
+}
+
+/* ------------------------ RecordBatch ------------------------ */
+// Window over consecutive ring-buffer slots handed to handlers in one call.
+// Only valid for the duration of that call; the slots are reused afterwards.
+class RecordBatch {
+    private LogRecord[] slots;
+    private int mask;
+    private long from;
+    private int size;
+
+    void set(LogRecord[] slots, int mask, long from, int size) {
+        this.slots = slots;
+        this.mask = mask;
+        this.from = from;
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    LogRecord get(int i) {
+        return slots[(int) (from + i) & mask];
     }
 }
 
@@ -89,7 +299,17 @@ abstract class Handler {
         }
     }
 
+    // Handlers that can write a whole batch at once (one syscall) override this.
+    void handleBatch(RecordBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            handle(batch.get(i));
+        }
+    }
+
     abstract void emit(LogRecord record) throws Exception;
+
+    void close() {
+    }
 }
 
 /* ------------------------ ConsoleHandler ------------------------ */
@@ -100,78 +320,599 @@ class ConsoleHandler extends Handler {
 
     @Override
     void emit(LogRecord record) {
-        System.out.println(formatter.format(record));
+        LineBuffer b = formatter.encode(record);
+        b.append((byte) '\n');
+        System.out.write(b.buf, 0, b.len);
+    }
+
+    @Override
+    void close() {
+        System.out.flush();
     }
 }
 
 /* ------------------------ RotatingFileHandler ------------------------ */
+// FileChannel appender that tracks the segment size in memory instead of stat'ing the file.
+// The next segment is opened ahead of time (as <file>.next) by a background thread, so
+// rotating on the logging thread is two renames and a channel swap; closing, fsync, shifting
+// the .1..N backups and optional gzip all happen on that background thread.
 class RotatingFileHandler extends Handler {
-    private final String filename;
+    enum FsyncPolicy { EVERY_BATCH, INTERVAL, NEVER }
+
+    private final Path path;
+    private final Path nextPath;
     private final long maxBytes;
     private final int backupCount;
-    private BufferedWriter writer;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final boolean compress;
+    private final ExecutorService rotator;
+    private final AtomicReference<FileChannel> preOpened = new AtomicReference<>();
+    private final LineBuffer writeBuffer = new LineBuffer();
+    private ByteBuffer view;
+    private FileChannel channel;
+    private long size;
+    private long lastSync = System.nanoTime();
+    private long rotations;
 
     RotatingFileHandler(String filename, long maxBytes, int backupCount, Level lvl, Formatter fmt) throws IOException {
+        this(filename, maxBytes, backupCount, lvl, fmt, FsyncPolicy.NEVER, 0, false);
+    }
+
+    RotatingFileHandler(String filename, long maxBytes, int backupCount, Level lvl, Formatter fmt,
+                        FsyncPolicy fsyncPolicy, long fsyncIntervalMs, boolean compress) throws IOException {
         super(lvl, fmt);
-        this.filename = filename;
+        this.path = Paths.get(filename);
+        this.nextPath = Paths.get(filename + ".next");
         this.maxBytes = maxBytes;
         this.backupCount = backupCount;
-        openFile();
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = fsyncIntervalMs * 1_000_000L;
+        this.compress = compress;
+        this.rotator = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "log-rotator");
+            t.setDaemon(true);
+            return t;
+        });
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.size = channel.size();
+        rotator.execute(this::preOpen);
     }
 
-    private void openFile() throws IOException {
-        File file = new File(filename);
-        file.getParentFile().mkdirs();
-        this.writer = new BufferedWriter(new FileWriter(file, true));
+    private void preOpen() {
+        if (preOpened.get() != null) return;
+        try {
+            preOpened.set(FileChannel.open(nextPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING));
+        } catch (IOException e) {
+            System.err.println("Handler error: " + e.getMessage());
+        }
     }
 
-    private boolean shouldRotate() {
-        File f = new File(filename);
-        return f.exists() && f.length() >= maxBytes;
+    private void rotate() throws IOException {
+        FileChannel old = channel;
+        Path retired = Paths.get(path + ".rotated-" + (++rotations));
+        Files.move(path, retired, StandardCopyOption.ATOMIC_MOVE);
+        FileChannel next = preOpened.getAndSet(null);
+        if (next != null) {
+            Files.move(nextPath, path, StandardCopyOption.ATOMIC_MOVE); // the open channel follows the file
+        } else {
+            next = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        channel = next;
+        size = 0;
+        rotator.execute(() -> {
+            archive(old, retired);
+            preOpen();
+        });
     }
 
-    private void rotate() throws IOException {
-        writer.close();
-        for (int i = backupCount - 1; i >= 1; i--) {
-            File src = new File(filename + "." + i);
-            File dest = new File(filename + "." + (i + 1));
-            if (src.exists()) src.renameTo(dest);
+    // Runs on the rotator thread: finish the old segment and shift it into the backups.
+    private void archive(FileChannel old, Path retired) {
+        String suffix = compress ? ".gz" : "";
+        try {
+            if (fsyncPolicy != FsyncPolicy.NEVER) old.force(false);
+            old.close();
+            if (backupCount < 1) {
+                Files.deleteIfExists(retired);
+                return;
+            }
+            Files.deleteIfExists(Paths.get(path + "." + backupCount + suffix));
+            for (int i = backupCount - 1; i >= 1; i--) {
+                Path src = Paths.get(path + "." + i + suffix);
+                if (Files.exists(src)) Files.move(src, Paths.get(path + "." + (i + 1) + suffix));
+            }
+            Path first = Paths.get(path + ".1" + suffix);
+            if (compress) {
+                try (InputStream in = Files.newInputStream(retired);
+                     OutputStream gz = new GZIPOutputStream(Files.newOutputStream(first))) {
+                    in.transferTo(gz);
+                }
+                Files.delete(retired);
+            } else {
+                Files.move(retired, first);
+            }
+        } catch (IOException e) {
+            System.err.println("Handler error: " + e.getMessage());
+        }
+    }
+
+    private void write(LineBuffer b) throws IOException {
+        if (view == null || view.array() != b.buf) view = ByteBuffer.wrap(b.buf);
+        view.clear().limit(b.len);
+        while (view.hasRemaining()) channel.write(view);
+        size += b.len;
+        if (fsyncPolicy == FsyncPolicy.EVERY_BATCH) {
+            channel.force(false);
+        } else if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            long now = System.nanoTime();
+            if (now - lastSync >= fsyncIntervalNanos) {
+                channel.force(false);
+                lastSync = now;
+            }
+        }
+        if (size >= maxBytes) rotate();
+    }
+
+    @Override
+    synchronized void handleBatch(RecordBatch batch) {
+        writeBuffer.reset();
+        for (int i = 0; i < batch.size(); i++) {
+            LogRecord record = batch.get(i);
+            if (record.level.getValue() < level.getValue()) continue;
+            LineBuffer b = formatter.encode(record);
+            writeBuffer.append(b.buf, 0, b.len).append((byte) '\n');
+        }
+        if (writeBuffer.len == 0) return;
+        try {
+            write(writeBuffer);
+        } catch (IOException e) {
+            System.err.println("Handler error: " + e.getMessage());
         }
-        File current = new File(filename);
-        if (current.exists()) current.renameTo(new File(filename + ".1"));
-        openFile();
     }
 
     @Override
-    void emit(LogRecord record) throws IOException {
-        writer.write(formatter.format(record));
-        writer.newLine();
-        writer.flush();
-        if (shouldRotate()) rotate();
+    synchronized void emit(LogRecord record) throws IOException {
+        LineBuffer b = formatter.encode(record);
+        writeBuffer.reset();
+        writeBuffer.append(b.buf, 0, b.len).append((byte) '\n');
+        write(writeBuffer);
+    }
+
+    @Override
+    synchronized void close() {
+        try {
+            if (fsyncPolicy != FsyncPolicy.NEVER) channel.force(false);
+            channel.close();
+            rotator.shutdown();
+            rotator.awaitTermination(5, TimeUnit.SECONDS);
+            FileChannel spare = preOpened.getAndSet(null);
+            if (spare != null) spare.close();
+            Files.deleteIfExists(nextPath);
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Handler error: " + e.getMessage());
+        }
+    }
+}
+
+/* ------------------------ BinaryLogHandler ------------------------ */
+// Compact binary log. File = magic "BLOG" + version, then frames:
+//   DICT   : 0x01, id varint, utf8 string          (logger names and metadata keys, written once)
+//   RECORD : 0x02, body length varint, body
+//   body   : level byte, timestamp delta (zigzag varint), logger id varint,
+//            message (varint length + utf8), meta count varint, then per entry
+//            key id varint, type tag, value (zigzag varint / utf8 / 8-byte double / bool byte / nothing)
+// Level and timestamp lead the body so a reader can filter on them and skip the rest unread.
+class BinaryLogHandler extends Handler {
+    static final byte[] MAGIC = {'B', 'L', 'O', 'G', 1};
+    static final byte DICT = 1, RECORD = 2;
+    static final byte T_NULL = 0, T_LONG = 1, T_STRING = 2, T_DOUBLE = 3, T_BOOL = 4;
+
+    private final FileChannel channel;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final LineBuffer out = new LineBuffer();
+    private final LineBuffer body = new LineBuffer();
+    private ByteBuffer view;
+    private long lastTimestamp;
+
+    // Always starts a new file: the dictionary and timestamp deltas are per file.
+    BinaryLogHandler(String filename, Level lvl) throws IOException {
+        super(lvl, null);
+        Path path = Paths.get(filename);
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        out.append(MAGIC);
+        flushOut();
+    }
+
+    static void putVarLong(LineBuffer b, long v) {
+        while ((v & ~0x7FL) != 0) {
+            b.append((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        b.append((byte) v);
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static int utf8Length(CharSequence s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) n += 1;
+            else if (c < 0x800) n += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                n += 4;
+                i++;
+            } else n += 3;
+        }
+        return n;
+    }
+
+    static void putString(LineBuffer b, CharSequence s) {
+        putVarLong(b, utf8Length(s));
+        b.appendUtf8(s);
+    }
+
+    private int idOf(String s) {
+        Integer id = dictionary.get(s);
+        if (id == null) {
+            id = dictionary.size();
+            dictionary.put(s, id);
+            out.append(DICT);
+            putVarLong(out, id);
+            putString(out, s);
+        }
+        return id;
+    }
+
+    private void encode(LogRecord r) {
+        int loggerId = idOf(r.loggerName);
+        for (String key : r.metadata.keySet()) idOf(key); // dictionary frames go before the record
+
+        body.reset();
+        body.append((byte) r.level.ordinal());
+        putVarLong(body, zigzag(r.timestamp - lastTimestamp));
+        lastTimestamp = r.timestamp;
+        putVarLong(body, loggerId);
+        putString(body, r.message);
+        putVarLong(body, r.metadata.size());
+        for (Map.Entry<String, Object> e : r.metadata.entrySet()) {
+            putVarLong(body, dictionary.get(e.getKey()));
+            Object v = e.getValue();
+            if (v == null) {
+                body.append(T_NULL);
+            } else if (v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte) {
+                body.append(T_LONG);
+                putVarLong(body, zigzag(((Number) v).longValue()));
+            } else if (v instanceof Double || v instanceof Float) {
+                body.append(T_DOUBLE);
+                long bits = Double.doubleToRawLongBits(((Number) v).doubleValue());
+                for (int shift = 56; shift >= 0; shift -= 8) body.append((byte) (bits >>> shift));
+            } else if (v instanceof Boolean) {
+                body.append(T_BOOL).append((byte) ((Boolean) v ? 1 : 0));
+            } else {
+                body.append(T_STRING);
+                putString(body, v instanceof CharSequence ? (CharSequence) v : String.valueOf(v));
+            }
+        }
+        out.append(RECORD);
+        putVarLong(out, body.len);
+        out.append(body.buf, 0, body.len);
+    }
+
+    private void flushOut() throws IOException {
+        if (view == null || view.array() != out.buf) view = ByteBuffer.wrap(out.buf);
+        view.clear().limit(out.len);
+        while (view.hasRemaining()) channel.write(view);
+        out.reset();
+    }
+
+    @Override
+    synchronized void handleBatch(RecordBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            LogRecord r = batch.get(i);
+            if (r.level.getValue() >= level.getValue()) encode(r);
+        }
+        try {
+            flushOut();
+        } catch (IOException e) {
+            System.err.println("Handler error: " + e.getMessage());
+        }
+    }
+
+    @Override
+    synchronized void emit(LogRecord record) throws IOException {
+        encode(record);
+        flushOut();
+    }
+
+    @Override
+    synchronized void close() {
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Handler error: " + e.getMessage());
+        }
+    }
+}
+
+/* ------------------------ BinaryLogReader ------------------------ */
+// Streaming decoder for BinaryLogHandler files. next() fills a caller-owned LogRecord and
+// skips records outside the level / time filter without decoding their strings.
+class BinaryLogReader implements Closeable {
+    private final InputStream in;
+    private final byte[] buf = new byte[1 << 16];
+    private int pos, limit;
+    private long consumed;  // bytes read so far, used to skip the unread tail of a record body
+    private final List<String> dictionary = new ArrayList<>();
+    private long lastTimestamp;
+    private static final Level[] LEVELS = Level.values();
+
+    BinaryLogReader(String filename) throws IOException {
+        this.in = Files.newInputStream(Paths.get(filename));
+        for (byte m : BinaryLogHandler.MAGIC) {
+            if (readByte() != m) throw new IOException(filename + " is not a binary log");
+        }
+    }
+
+    private boolean fill() throws IOException {
+        pos = 0;
+        limit = Math.max(0, in.read(buf));
+        return limit > 0;
+    }
+
+    private int readByte() throws IOException {
+        if (pos == limit && !fill()) throw new EOFException();
+        consumed++;
+        return buf[pos++] & 0xFF;
+    }
+
+    private long readVarLong() throws IOException {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private String readString() throws IOException {
+        int n = (int) readVarLong();
+        if (limit - pos >= n) {
+            String s = new String(buf, pos, n, StandardCharsets.UTF_8);
+            pos += n;
+            consumed += n;
+            return s;
+        }
+        byte[] bytes = new byte[n];
+        for (int i = 0; i < n; i++) bytes[i] = (byte) readByte();
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void skip(long n) throws IOException {
+        while (n > 0) {
+            if (pos == limit && !fill()) throw new EOFException();
+            int step = (int) Math.min(n, limit - pos);
+            pos += step;
+            consumed += step;
+            n -= step;
+        }
+    }
+
+    boolean next(LogRecord into) throws IOException {
+        return next(into, Level.DEBUG, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    // Returns false at end of file. Only records with level >= minLevel and
+    // fromMillis <= timestamp < toMillis are returned.
+    boolean next(LogRecord into, Level minLevel, long fromMillis, long toMillis) throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) return false;
+            int type = readByte();
+            if (type == BinaryLogHandler.DICT) {
+                int id = (int) readVarLong();
+                String s = readString();
+                if (id == dictionary.size()) dictionary.add(s);
+                else dictionary.set(id, s);
+                continue;
+            }
+            if (type != BinaryLogHandler.RECORD) throw new IOException("corrupt frame type " + type);
+            long length = readVarLong();
+            long start = consumed;
+            Level level = LEVELS[readByte()];
+            long ts = lastTimestamp + unzigzag(readVarLong());
+            lastTimestamp = ts;
+            if (level.getValue() < minLevel.getValue() || ts < fromMillis || ts >= toMillis) {
+                skip(length - (consumed - start));
+                continue;
+            }
+            into.level = level;
+            into.timestamp = ts;
+            into.loggerName = dictionary.get((int) readVarLong());
+            into.message = readString();
+            int metaCount = (int) readVarLong();
+            Map<String, Object> meta = new LinkedHashMap<>();
+            for (int i = 0; i < metaCount; i++) {
+                String key = dictionary.get((int) readVarLong());
+                int tag = readByte();
+                switch (tag) {
+                    case BinaryLogHandler.T_NULL: meta.put(key, null); break;
+                    case BinaryLogHandler.T_LONG: meta.put(key, unzigzag(readVarLong())); break;
+                    case BinaryLogHandler.T_DOUBLE: {
+                        long bits = 0;
+                        for (int k = 0; k < 8; k++) bits = (bits << 8) | readByte();
+                        meta.put(key, Double.longBitsToDouble(bits));
+                        break;
+                    }
+                    case BinaryLogHandler.T_BOOL: meta.put(key, readByte() != 0); break;
+                    default: meta.put(key, readString());
+                }
+            }
+            into.metadata = meta;
+            return true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
+
+/* ------------------------ Log2Histogram ------------------------ */
+// Power-of-two buckets on striped counters: record() is a couple of adds, safe from any thread.
+// Bucket i holds values in [2^(i-1), 2^i); percentiles report the bucket's upper bound.
+class Log2Histogram {
+    private final LongAdder[] buckets = new LongAdder[64];
+    private final LongAdder sum = new LongAdder();
+
+    Log2Histogram() {
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+    }
+
+    void record(long value) {
+        buckets[value <= 0 ? 0 : Math.min(63, 64 - Long.numberOfLeadingZeros(value))].increment();
+        sum.add(value);
+    }
+
+    Snapshot snapshot() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < counts.length; i++) counts[i] = buckets[i].sum();
+        return new Snapshot(counts, sum.sum());
+    }
+
+    static final class Snapshot {
+        final long[] counts;
+        final long count;
+        final long sum;
+
+        Snapshot(long[] counts, long sum) {
+            this.counts = counts;
+            long n = 0;
+            for (long c : counts) n += c;
+            this.count = n;
+            this.sum = sum;
+        }
+
+        long percentile(double q) {
+            long rank = (long) Math.ceil(q * count), seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) return i == 0 ? 0 : 1L << i;
+            }
+            return 0;
+        }
+
+        double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d mean=%.1f p50<=%d p99<=%d p99.9<=%d max<=%d", count, mean(),
+                    percentile(0.5), percentile(0.99), percentile(0.999), percentile(1.0));
+        }
     }
 }
 
 /* ------------------------ AsyncDispatcher ------------------------ */
+// Multi-producer, single-consumer ring buffer of preallocated LogRecord slots (Disruptor-style).
+// Producers claim a sequence with CAS on cursor, fill the slot in place and publish it by
+// stamping the slot's round in 'published'. The worker claims every contiguous published
+// slot with CAS on head and hands them to each handler as one RecordBatch.
 class AsyncDispatcher {
-    private final BlockingQueue<LogRecord> queue;
+    enum WaitStrategy { BUSY_SPIN, YIELD, PARK } // BUSY_SPIN only pays off with a core to spare
+
+    // What a producer does when the ring is full. ADAPTIVE sheds DEBUG once the ring is half
+    // full and INFO at three quarters; when full, WARNING evicts an older DEBUG/INFO record or
+    // is dropped, and ERROR/CRITICAL evict an older record below ERROR or wait for space. They
+    // are never dropped; only once the dispatcher is stopped or its worker has died does a
+    // waiting record give up, counted as abandoned.
+    enum DropPolicy {
+        DROP_NEW, DROP_OLDEST, BLOCK, ADAPTIVE;
+
+        static DropPolicy parse(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final LogRecord[] slots;
+    private final AtomicIntegerArray published; // round (seq >>> indexShift) of the last publish per slot
+    private final int mask;
+    private final int indexShift;
+    private final AtomicLong cursor = new AtomicLong(-1);  // last sequence claimed by a producer
+    private final AtomicLong head = new AtomicLong(0);     // next sequence to consume (or drop)
+    private volatile long batchEnd = 0;  // worker is reading [released, batchEnd)
+    private volatile long released = 0;  // every sequence below this has been handled
+
     private final List<Handler> handlers;
+    private final int minHandlerLevel;  // nothing below this reaches any handler
     private final int batchSize;
     private final long flushIntervalMs;
-    private final String dropPolicy;
+    private final DropPolicy dropPolicy;
+    private final WaitStrategy waitStrategy;
     private final Thread worker;
     private final AtomicBoolean running = new AtomicBoolean(false);
-    private int dropped = 0;
+    private volatile boolean workerParked;
+
+    private final LongAdder[] droppedByLevel = new LongAdder[Level.values().length];
+    private final LongAdder abandoned = new LongAdder(); // gave up waiting on a stopped or dead worker
+    private final LongAdder enqueued = new LongAdder();
+    private final Log2Histogram enqueueNanos = new Log2Histogram();
+    private final Log2Histogram batchSizes = new Log2Histogram();
+    private final Log2Histogram[] flushNanos;  // per handler
 
     AsyncDispatcher(List<Handler> handlers, int queueSize, int batchSize, long flushIntervalMs, String dropPolicy) {
+        this(handlers, queueSize, batchSize, flushIntervalMs, DropPolicy.parse(dropPolicy), WaitStrategy.PARK);
+    }
+
+    AsyncDispatcher(List<Handler> handlers, int queueSize, int batchSize, long flushIntervalMs, String dropPolicy,
+                    WaitStrategy waitStrategy) {
+        this(handlers, queueSize, batchSize, flushIntervalMs, DropPolicy.parse(dropPolicy), waitStrategy);
+    }
+
+    AsyncDispatcher(List<Handler> handlers, int queueSize, int batchSize, long flushIntervalMs, DropPolicy dropPolicy) {
+        this(handlers, queueSize, batchSize, flushIntervalMs, dropPolicy, WaitStrategy.PARK);
+    }
+
+    AsyncDispatcher(List<Handler> handlers, int queueSize, int batchSize, long flushIntervalMs, DropPolicy dropPolicy,
+                    WaitStrategy waitStrategy) {
+        int size = Integer.highestOneBit(Math.max(2, queueSize - 1)) << 1; // next power of two
+        this.slots = new LogRecord[size];
+        for (int i = 0; i < size; i++) slots[i] = new LogRecord();
+        this.published = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) published.setPlain(i, -1);
+        this.mask = size - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(size);
         this.handlers = handlers;
-        this.queue = new ArrayBlockingQueue<>(queueSize);
+        int min = Integer.MAX_VALUE;
+        for (Handler h : handlers) min = Math.min(min, h.level.getValue());
+        this.minHandlerLevel = min;
         this.batchSize = batchSize;
         this.flushIntervalMs = flushIntervalMs;
         this.dropPolicy = dropPolicy;
+        this.waitStrategy = waitStrategy;
+        for (int i = 0; i < droppedByLevel.length; i++) droppedByLevel[i] = new LongAdder();
+        this.flushNanos = new Log2Histogram[handlers.size()];
+        for (int i = 0; i < flushNanos.length; i++) flushNanos[i] = new Log2Histogram();
         this.worker = new Thread(this::runWorker, "LoggerWorker");
         this.worker.setDaemon(true);
     }
 
+    int getMinHandlerLevel() {
+        return minHandlerLevel;
+    }
+
     void start() {
         running.set(true);
         worker.start();
@@ -179,80 +920,284 @@ class AsyncDispatcher {
 
     void stop() {
         running.set(false);
+        LockSupport.unpark(worker);
         try {
             worker.join();
         } catch (InterruptedException ignored) {}
+        for (Handler h : handlers) {
+            h.close();
+        }
     }
 
     boolean enqueue(LogRecord record) {
-        try {
-            if ("drop_oldest".equals(dropPolicy)) {
-                while (!queue.offer(record)) {
-                    queue.poll(); // drop oldest
-                    dropped++;
-                }
-            } else if ("drop_new".equals(dropPolicy)) {
-                if (!queue.offer(record)) {
-                    dropped++;
-                    return false;
-                }
-            } else { // block briefly
-                queue.offer(record, 100, TimeUnit.MILLISECONDS);
-            }
-            return true;
-        } catch (Exception e) {
-            dropped++;
+        return publish(record.loggerName, record.level, record.message, record.metadata, record.timestamp);
+    }
+
+    boolean publish(String name, Level lvl, String msg, Map<String, Object> meta) {
+        return publish(name, lvl, msg, meta, System.currentTimeMillis());
+    }
+
+    private boolean publish(String name, Level lvl, String msg, Map<String, Object> meta, long timestamp) {
+        long start = System.nanoTime();
+        long seq = claim(lvl);
+        if (seq < 0) {
+            (seq == ABANDONED ? abandoned : droppedByLevel[lvl.ordinal()]).increment();
             return false;
         }
+        LogRecord slot = slots[(int) seq & mask];
+        slot.loggerName = name;
+        slot.level = lvl;
+        slot.message = msg;
+        slot.metadata = meta != null ? meta : Collections.emptyMap();
+        slot.timestamp = timestamp;
+        slot.seq = seq;
+        published.setRelease((int) seq & mask, (int) (seq >>> indexShift)); // slot fields happen-before the stamp
+        if (workerParked) LockSupport.unpark(worker);
+        enqueued.increment();
+        enqueueNanos.record(System.nanoTime() - start);
+        return true;
     }
 
-    private void runWorker() {
-        List<LogRecord> batch = new ArrayList<>();
-        long lastFlush = System.currentTimeMillis();
+    // The slot for 'wrap' (= seq - capacity) can be overwritten once the worker has handled it,
+    // or once it was dropped by drop_oldest: below head but outside the batch being read.
+    private boolean slotFree(long wrap) {
+        if (wrap < 0) return true;
+        long h = head.get(); // head before batchEnd: the worker moves them in the opposite order
+        return wrap < released || (wrap >= batchEnd && wrap < h);
+    }
 
-        while (running.get() || !queue.isEmpty()) {
-            try {
-                LogRecord rec = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
-                if (rec != null) batch.add(rec);
-                if (!batch.isEmpty() && (batch.size() >= batchSize ||
-                        System.currentTimeMillis() - lastFlush >= flushIntervalMs)) {
-                    flush(batch);
-                    batch.clear();
-                    lastFlush = System.currentTimeMillis();
-                }
-            } catch (Exception ignored) {}
+    private static final long ABANDONED = -2;
+
+    // Nothing will free a slot any more.
+    private boolean workerGone() {
+        return !running.get() || !worker.isAlive();
+    }
+
+    // Returns the claimed sequence, -1 when the record has to be dropped, or ABANDONED when it
+    // waited for space that no worker is left to make.
+    private long claim(Level lvl) {
+        if (dropPolicy == DropPolicy.ADAPTIVE && lvl.getValue() <= Level.INFO.getValue()) {
+            long depth = cursor.get() + 1 - released;
+            if (depth >= (lvl == Level.DEBUG ? slots.length >> 1 : slots.length - (slots.length >> 2))) return -1;
+        }
+        long deadline = 0;
+        while (true) {
+            long current = cursor.get();
+            long next = current + 1;
+            if (slotFree(next - slots.length)) {
+                if (cursor.compareAndSet(current, next)) return next;
+                continue;
+            }
+            switch (dropPolicy) {
+                case DROP_NEW:
+                    return -1;
+                case DROP_OLDEST:
+                    if (dropOldest(Level.CRITICAL)) continue;
+                    if (workerGone()) return ABANDONED;
+                    idle(); // the worker holds the oldest records in its batch
+                    continue;
+                case ADAPTIVE:
+                    if (lvl.getValue() >= Level.ERROR.getValue()) {
+                        if (dropOldest(Level.WARNING)) continue;
+                        if (workerGone()) return ABANDONED;
+                        idle(); // never dropped: wait for the worker however long it takes
+                        continue;
+                    }
+                    if (lvl == Level.WARNING && dropOldest(Level.INFO)) continue;
+                    return -1;
+                default:
+                    // block briefly, then give up
+                    if (deadline == 0) deadline = System.nanoTime() + 100_000_000L;
+                    if (System.nanoTime() - deadline > 0) return -1;
+                    idle();
+            }
+        }
+    }
+
+    // Skips the oldest published record the worker has not claimed yet, if its level is at most maxLevel.
+    private boolean dropOldest(Level maxLevel) {
+        long h = head.get();
+        if (h > cursor.get() || published.getAcquire((int) h & mask) != (int) (h >>> indexShift)) return false;
+        Level victim = slots[(int) h & mask].level;
+        if (victim.getValue() > maxLevel.getValue() || !head.compareAndSet(h, h + 1)) return false;
+        droppedByLevel[victim.ordinal()].increment();
+        return true;
+    }
+
+    private void idle() {
+        switch (waitStrategy) {
+            case BUSY_SPIN: Thread.onSpinWait(); break;
+            case YIELD: Thread.yield(); break;
+            default: LockSupport.parkNanos(50_000L);
         }
-        if (!batch.isEmpty()) flush(batch);
     }
 
-    private void flush(List<LogRecord> batch) {
-        for (LogRecord rec : batch) {
-            for (Handler h : handlers) {
-                h.handle(rec);
+    private void runWorker() {
+        RecordBatch batch = new RecordBatch();
+        while (true) {
+            long h = head.get();
+            long hi = h - 1;
+            long limit = Math.min(cursor.get(), h + batchSize - 1);
+            while (hi < limit && published.getAcquire((int) (hi + 1) & mask) == (int) ((hi + 1) >>> indexShift)) hi++;
+
+            if (hi < h) {
+                if (!running.get() && h > cursor.get()) break;
+                waitForWork();
+                continue;
+            }
+            batchEnd = hi + 1;
+            if (!head.compareAndSet(h, hi + 1)) { // a producer dropped the oldest record meanwhile
+                batchEnd = released;
+                continue;
             }
+            batch.set(slots, mask, h, (int) (hi + 1 - h));
+            batchSizes.record(batch.size());
+            flush(batch);
+            for (long seq = h; seq <= hi; seq++) { // let go of the payloads, keep the slots
+                LogRecord slot = slots[(int) seq & mask];
+                slot.message = null;
+                slot.metadata = null;
+            }
+            released = hi + 1;
+        }
+    }
+
+    private void waitForWork() {
+        if (waitStrategy != WaitStrategy.PARK) {
+            idle();
+            return;
+        }
+        workerParked = true;
+        if (head.get() > cursor.get() && running.get()) {
+            LockSupport.parkNanos(flushIntervalMs * 1_000_000L);
+        }
+        workerParked = false;
+    }
+
+    private void flush(RecordBatch batch) {
+        for (int i = 0; i < handlers.size(); i++) {
+            long start = System.nanoTime();
+            handlers.get(i).handleBatch(batch);
+            flushNanos[i].record(System.nanoTime() - start);
         }
     }
 
+    // Records lost either way: dropped by policy or abandoned.
     int getDroppedCount() {
-        return dropped;
+        long total = abandoned.sum();
+        for (LongAdder d : droppedByLevel) total += d.sum();
+        return (int) total;
+    }
+
+    Metrics getMetrics() {
+        long[] drops = new long[droppedByLevel.length];
+        for (int i = 0; i < drops.length; i++) drops[i] = droppedByLevel[i].sum();
+        Map<String, Log2Histogram.Snapshot> flush = new LinkedHashMap<>();
+        for (int i = 0; i < handlers.size(); i++) {
+            flush.put(i + ":" + handlers.get(i).getClass().getSimpleName(), flushNanos[i].snapshot());
+        }
+        long depth = Math.max(0, cursor.get() + 1 - released);
+        return new Metrics(slots.length, depth, enqueued.sum(), drops, abandoned.sum(), enqueueNanos.snapshot(),
+                batchSizes.snapshot(), flush);
+    }
+
+    // Point-in-time view of the dispatcher; counters are cumulative since construction.
+    static final class Metrics {
+        final int capacity;
+        final long queueDepth;
+        final long enqueued;
+        final long[] droppedByLevel;  // indexed by Level.ordinal()
+        final long abandoned;
+        final Log2Histogram.Snapshot enqueueNanos;
+        final Log2Histogram.Snapshot batchSizes;
+        final Map<String, Log2Histogram.Snapshot> flushNanos;
+
+        Metrics(int capacity, long queueDepth, long enqueued, long[] droppedByLevel, long abandoned,
+                Log2Histogram.Snapshot enqueueNanos, Log2Histogram.Snapshot batchSizes,
+                Map<String, Log2Histogram.Snapshot> flushNanos) {
+            this.capacity = capacity;
+            this.queueDepth = queueDepth;
+            this.enqueued = enqueued;
+            this.droppedByLevel = droppedByLevel;
+            this.abandoned = abandoned;
+            this.enqueueNanos = enqueueNanos;
+            this.batchSizes = batchSizes;
+            this.flushNanos = flushNanos;
+        }
+
+        long dropped(Level lvl) {
+            return droppedByLevel[lvl.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("queue depth ").append(queueDepth).append('/').append(capacity)
+                    .append(", enqueued ").append(enqueued).append(", dropped");
+            for (Level l : Level.values()) sb.append(' ').append(l).append('=').append(dropped(l));
+            sb.append(", abandoned ").append(abandoned);
+            sb.append("\n  enqueue ns   ").append(enqueueNanos);
+            sb.append("\n  batch size   ").append(batchSizes);
+            flushNanos.forEach((h, snap) -> sb.append("\n  flush ns ").append(h).append(' ').append(snap));
+            return sb.toString();
+        }
     }
 }
 
 /* ------------------------ Logger ------------------------ */
+// A call below the logger's level, or below every handler's level, returns after one int
+// compare: the template is not formatted, suppliers are not called, nothing is enqueued.
+// Callers that build a meta map or box arguments should still guard with isEnabled().
 class Logger {
+    private static final ThreadLocal<StringBuilder> MESSAGE = ThreadLocal.withInitial(StringBuilder::new);
+
     private final String name;
     private final Level level;
     private final AsyncDispatcher dispatcher;
+    private final int threshold;
 
     Logger(String name, Level lvl, AsyncDispatcher disp) {
         this.name = name;
         this.level = lvl;
         this.dispatcher = disp;
+        this.threshold = Math.max(lvl.getValue(), disp.getMinHandlerLevel());
     }
 
-    private void log(Level lvl, String msg, Map<String, Object> meta) {
-        if (lvl.getValue() < level.getValue()) return;
-        dispatcher.enqueue(new LogRecord(name, lvl, msg, meta));
+    boolean isEnabled(Level lvl) {
+        return lvl.getValue() >= threshold;
+    }
+
+    boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    void log(Level lvl, String msg, Map<String, Object> meta) {
+        if (lvl.getValue() < threshold) return;
+        dispatcher.publish(name, lvl, msg, meta);
+    }
+
+    void log(Level lvl, Supplier<String> msg, Supplier<Map<String, Object>> meta) {
+        if (lvl.getValue() < threshold) return;
+        dispatcher.publish(name, lvl, msg.get(), meta != null ? meta.get() : null);
+    }
+
+    // SLF4J-style "{}" placeholders, filled in order; extra placeholders are left as-is.
+    void log(Level lvl, String template, Object... args) {
+        if (lvl.getValue() < threshold) return;
+        dispatcher.publish(name, lvl, substitute(template, args), null);
+    }
+
+    static String substitute(String template, Object[] args) {
+        if (args == null || args.length == 0) return template;
+        StringBuilder sb = MESSAGE.get();
+        sb.setLength(0);
+        int from = 0, arg = 0;
+        int at;
+        while (arg < args.length && (at = template.indexOf("{}", from)) >= 0) {
+            sb.append(template, from, at).append(args[arg++]);
+            from = at + 2;
+        }
+        return sb.append(template, from, template.length()).toString();
     }
 
     void debug(String msg, Map<String, Object> meta) { log(Level.DEBUG, msg, meta); }
@@ -260,17 +1205,462 @@ class Logger {
     void warning(String msg, Map<String, Object> meta) { log(Level.WARNING, msg, meta); }
     void error(String msg, Map<String, Object> meta) { log(Level.ERROR, msg, meta); }
     void critical(String msg, Map<String, Object> meta) { log(Level.CRITICAL, msg, meta); }
+
+    // Fixed-arity overloads so disabled calls do not allocate a varargs array.
+    void debug(String template, Object arg) {
+        if (Level.DEBUG.getValue() >= threshold) log(Level.DEBUG, template, new Object[]{arg});
+    }
+
+    void debug(String template, Object arg1, Object arg2) {
+        if (Level.DEBUG.getValue() >= threshold) log(Level.DEBUG, template, new Object[]{arg1, arg2});
+    }
+
+    void info(String template, Object arg) {
+        if (Level.INFO.getValue() >= threshold) log(Level.INFO, template, new Object[]{arg});
+    }
+
+    void info(String template, Object arg1, Object arg2) {
+        if (Level.INFO.getValue() >= threshold) log(Level.INFO, template, new Object[]{arg1, arg2});
+    }
+
+    void debug(String template, Object... args) { log(Level.DEBUG, template, args); }
+    void info(String template, Object... args) { log(Level.INFO, template, args); }
+    void warning(String template, Object... args) { log(Level.WARNING, template, args); }
+    void error(String template, Object... args) { log(Level.ERROR, template, args); }
+    void critical(String template, Object... args) { log(Level.CRITICAL, template, args); }
+
+    void debug(Supplier<String> msg) { log(Level.DEBUG, msg, null); }
+    void info(Supplier<String> msg) { log(Level.INFO, msg, null); }
+    void warning(Supplier<String> msg) { log(Level.WARNING, msg, null); }
+    void error(Supplier<String> msg) { log(Level.ERROR, msg, null); }
+    void critical(Supplier<String> msg) { log(Level.CRITICAL, msg, null); }
+}
+
+/* ------------------------ DisabledLevelBenchmark ------------------------ */
+// Cost of a logging call that no handler wants (ns and bytes per call):
+// java LoggerSystem disabled
+class DisabledLevelBenchmark {
+    interface Call {
+        void run(Logger logger, int i);
+    }
+
+    static void run() {
+        DispatcherBenchmark.CountingHandler handler = new DispatcherBenchmark.CountingHandler(Level.INFO);
+        AsyncDispatcher dispatcher = new AsyncDispatcher(Collections.singletonList(handler), 1024, 64, 10, AsyncDispatcher.DropPolicy.DROP_NEW);
+        dispatcher.start();
+        Logger logger = new Logger("bench", Level.DEBUG, dispatcher); // logger allows DEBUG, the handler does not
+        String user = "alice";
+        Map<String, Call> calls = new LinkedHashMap<>();
+        calls.put("debug(msg, new HashMap)", (l, i) -> {
+            Map<String, Object> meta = new HashMap<>();
+            meta.put("i", i);
+            l.debug("request " + i, meta);
+        });
+        calls.put("debug(template, arg)", (l, i) -> l.debug("request for {}", user));
+        calls.put("debug(template, int)", (l, i) -> l.debug("request {}", i));
+        calls.put("debug(supplier)", (l, i) -> l.debug(() -> "request " + i));
+        calls.put("isDebugEnabled() guard", (l, i) -> {
+            if (l.isDebugEnabled()) l.debug("request " + i, Collections.singletonMap("i", i));
+        });
+        int n = 20_000_000;
+        for (int round = 0; round < 3; round++) { // first rounds are JIT warm-up
+            System.out.println("round " + round);
+            for (Map.Entry<String, Call> e : calls.entrySet()) {
+                Call call = e.getValue();
+                long before = FormatBenchmark.allocatedBytes();
+                long start = System.nanoTime();
+                for (int i = 0; i < n; i++) call.run(logger, i);
+                long nanos = System.nanoTime() - start;
+                long bytes = FormatBenchmark.allocatedBytes() - before;
+                System.out.printf("  %-26s %6.2f ns/call %8.1f bytes/call%n", e.getKey(), (double) nanos / n,
+                        (double) bytes / n);
+            }
+        }
+        dispatcher.stop();
+        System.out.println("records that reached the handler: " + handler.records.sum());
+    }
+}
+
+/* ------------------------ FormatBenchmark ------------------------ */
+// Bytes allocated per formatted record (the gc.alloc.rate.norm figure), measured with the
+// per-thread allocation counter: java LoggerSystem bench
+class FormatBenchmark {
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static void run() {
+        Formatter fmt = new Formatter("{asctime} [{level}] {name}: {msg} {meta}");
+        Map<String, Object> meta = new LinkedHashMap<>();
+        meta.put("thread", 3);
+        meta.put("i", 42);
+        meta.put("user", "alice");
+        LogRecord record = new LogRecord("MyApp", Level.INFO, "message 42 from thread 3", meta);
+        OutputStream sink = new ByteArrayOutputStream(1 << 20) {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                reset(); // keep the sink from growing, we only care about the formatter
+            }
+        };
+        int records = 2_000_000;
+
+        for (int round = 0; round < 3; round++) { // first rounds are JIT warm-up
+            long before = allocatedBytes();
+            long start = System.nanoTime();
+            long chars = 0;
+            for (int i = 0; i < records; i++) {
+                record.timestamp++;
+                chars += fmt.format(record).length();
+            }
+            long stringNanos = System.nanoTime() - start;
+            long stringBytes = allocatedBytes() - before;
+
+            before = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < records; i++) {
+                record.timestamp++;
+                try {
+                    fmt.encode(record).writeTo(sink);
+                } catch (IOException ignored) {}
+            }
+            long encodeNanos = System.nanoTime() - start;
+            long encodeBytes = allocatedBytes() - before;
+
+            System.out.printf("round %d: format() %.1f B/op %.0f ns/op | encode() %.2f B/op %.0f ns/op (%d chars)%n",
+                    round, (double) stringBytes / records, (double) stringNanos / records,
+                    (double) encodeBytes / records, (double) encodeNanos / records, chars);
+        }
+    }
+}
+
+/* ------------------------ DispatcherBenchmark ------------------------ */
+// Records/sec through the dispatcher with 16 producer threads, ring buffer vs the previous
+// ArrayBlockingQueue design: java LoggerSystem dispatch [recordsPerProducer]
+class DispatcherBenchmark {
+    static class CountingHandler extends Handler {
+        final LongAdder records = new LongAdder();
+        final LongAdder batches = new LongAdder();
+
+        CountingHandler() {
+            this(Level.DEBUG);
+        }
+
+        CountingHandler(Level lvl) {
+            super(lvl, null);
+        }
+
+        @Override
+        void handleBatch(RecordBatch batch) {
+            records.add(batch.size());
+            batches.increment();
+        }
+
+        @Override
+        void emit(LogRecord record) {
+            records.increment();
+        }
+    }
+
+    static final int PRODUCERS = 16;
+
+    static void runProducers(int perProducer, Runnable body) throws InterruptedException {
+        Thread[] threads = new Thread[PRODUCERS];
+        for (int t = 0; t < PRODUCERS; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) body.run();
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+    }
+
+    // The dispatcher design before the ring buffer: one lock, one allocated record per call.
+    static double queueBaseline(int perProducer) throws InterruptedException {
+        BlockingQueue<LogRecord> queue = new ArrayBlockingQueue<>(8192);
+        LongAdder handled = new LongAdder();
+        long total = (long) perProducer * PRODUCERS;
+        Thread consumer = new Thread(() -> {
+            List<LogRecord> batch = new ArrayList<>();
+            while (handled.sum() < total) {
+                try {
+                    LogRecord r = queue.poll(10, TimeUnit.MILLISECONDS);
+                    if (r == null) continue;
+                    batch.add(r);
+                    queue.drainTo(batch, 255);
+                    handled.add(batch.size());
+                    batch.clear();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        consumer.start();
+        long start = System.nanoTime();
+        runProducers(perProducer, () -> {
+            try {
+                queue.offer(new LogRecord("bench", Level.INFO, "message", null), 100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ignored) {}
+        });
+        consumer.join(10_000);
+        return handled.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+
+    static void run(int perProducer) throws InterruptedException {
+        Map<String, Object> meta = Collections.emptyMap();
+        System.out.printf("%d producers x %d records%n", PRODUCERS, perProducer);
+        System.out.printf("%-28s %14.0f records/s%n", "ArrayBlockingQueue (old)", queueBaseline(perProducer));
+        for (AsyncDispatcher.WaitStrategy ws : AsyncDispatcher.WaitStrategy.values()) {
+            CountingHandler counter = new CountingHandler();
+            AsyncDispatcher d = new AsyncDispatcher(Collections.singletonList(counter), 8192, 4096, 10,
+                    AsyncDispatcher.DropPolicy.BLOCK, ws);
+            d.start();
+            long start = System.nanoTime();
+            runProducers(perProducer, () -> d.publish("bench", Level.INFO, "message", meta));
+            d.stop();
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-28s %14.0f records/s  avg batch %.0f  dropped %d%n", "ring buffer " + ws,
+                    counter.records.sum() / secs, (double) counter.records.sum() / Math.max(1, counter.batches.sum()),
+                    d.getDroppedCount());
+        }
+    }
+}
+
+/* ------------------------ PressureBenchmark ------------------------ */
+// Producers outrun a slow handler; compares what each drop policy sheds:
+// java LoggerSystem pressure [recordsPerProducer]
+class PressureBenchmark {
+    static class SlowHandler extends DispatcherBenchmark.CountingHandler {
+        @Override
+        void handleBatch(RecordBatch batch) {
+            super.handleBatch(batch);
+            LockSupport.parkNanos(200_000L + batch.size() * 2_000L); // a disk or network sink falling behind
+        }
+    }
+
+    static void run(int perProducer) throws InterruptedException {
+        Level[] mix = {Level.DEBUG, Level.DEBUG, Level.INFO, Level.INFO, Level.INFO, Level.INFO,
+                Level.WARNING, Level.ERROR, Level.CRITICAL}; // roughly what an application emits
+        Map<String, Object> meta = Collections.emptyMap();
+        int producers = 8;
+        for (AsyncDispatcher.DropPolicy policy : new AsyncDispatcher.DropPolicy[]{
+                AsyncDispatcher.DropPolicy.DROP_NEW, AsyncDispatcher.DropPolicy.DROP_OLDEST,
+                AsyncDispatcher.DropPolicy.ADAPTIVE}) {
+            SlowHandler handler = new SlowHandler();
+            AsyncDispatcher d = new AsyncDispatcher(Collections.singletonList(handler), 1024, 128, 10, policy);
+            d.start();
+            Thread[] threads = new Thread[producers];
+            long start = System.nanoTime();
+            for (int t = 0; t < producers; t++) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < perProducer; i++) {
+                        d.publish("bench", mix[i % mix.length], "message", meta);
+                        if ((i & 63) == 0) LockSupport.parkNanos(100_000L);
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread t : threads) t.join();
+            AsyncDispatcher.Metrics m = d.getMetrics();
+            d.stop();
+            System.out.printf("%s: %d producers x %d records in %.2fs, handled %d%n", policy, producers, perProducer,
+                    (System.nanoTime() - start) / 1e9, handler.records.sum());
+            System.out.println("  " + m);
+            if (policy == AsyncDispatcher.DropPolicy.ADAPTIVE
+                    && m.dropped(Level.ERROR) + m.dropped(Level.CRITICAL) + m.abandoned > 0) {
+                throw new AssertionError("adaptive policy dropped ERROR/CRITICAL records");
+            }
+        }
+
+        // With no worker to make room, ERROR on a full ring gives up instead of waiting forever.
+        AsyncDispatcher idle = new AsyncDispatcher(Collections.singletonList(new SlowHandler()), 16, 4, 10,
+                AsyncDispatcher.DropPolicy.ADAPTIVE);
+        for (int i = 0; i < 16; i++) idle.publish("bench", Level.ERROR, "message", meta);
+        if (idle.publish("bench", Level.ERROR, "message", meta) || idle.getMetrics().abandoned != 1) {
+            throw new AssertionError("ERROR on a full ring with no worker was not abandoned");
+        }
+        System.out.println("no worker: ERROR on a full ring abandoned, not waited on");
+    }
+}
+
+/* ------------------------ BinaryLogTool ------------------------ */
+// java LoggerSystem binscan <file> [minLevel] [fromIso] [toIso]  -- filter a binary log, print as text
+// java LoggerSystem bincheck                                     -- round-trip check of the encoding
+// java LoggerSystem binbench [records]                           -- size / write / filter vs text logs
+class BinaryLogTool {
+    static final Formatter TEXT = new Formatter("{asctime} [{level}] {name}: {msg} {meta}");
+
+    static void scan(String file, Level minLevel, long from, long to) throws IOException {
+        LogRecord r = new LogRecord();
+        PrintStream out = System.out;
+        try (BinaryLogReader reader = new BinaryLogReader(file)) {
+            while (reader.next(r, minLevel, from, to)) TEXT.encode(r).append((byte) '\n').writeTo(out);
+        }
+        out.flush();
+    }
+
+    static void write(Handler h, List<LogRecord> records) {
+        RecordBatch batch = new RecordBatch();
+        LogRecord[] window = new LogRecord[256];
+        for (int i = 0; i < records.size(); i += window.length) {
+            int n = Math.min(window.length, records.size() - i);
+            for (int k = 0; k < n; k++) window[k] = records.get(i + k);
+            batch.set(window, window.length - 1, 0, n);
+            h.handleBatch(batch);
+        }
+    }
+
+    static void check(String file) throws IOException {
+        Map<String, Object> meta = new LinkedHashMap<>();
+        meta.put("long", Long.MIN_VALUE);
+        meta.put("int", -7);
+        meta.put("double", -0.125);
+        meta.put("bool", true);
+        meta.put("null", null);
+        meta.put("text", "caf\u00e9 \ud83d\ude80 " + "x".repeat(70_000)); // spans reader buffer refills
+        List<LogRecord> records = new ArrayList<>();
+        long base = 1_700_000_000_000L;
+        long[] stamps = {base, base - 5_000, base + 86_400_000L, 0, Long.MAX_VALUE / 2};
+        for (int i = 0; i < stamps.length; i++) {
+            LogRecord r = new LogRecord(i % 2 == 0 ? "app" : "db.pool", Level.values()[i % 5], "m\u00e9ssage " + i,
+                    i == 0 ? meta : Collections.singletonMap("i", i));
+            r.timestamp = stamps[i];
+            records.add(r);
+        }
+        BinaryLogHandler h = new BinaryLogHandler(file, Level.DEBUG);
+        write(h, records);
+        h.close();
+
+        LogRecord r = new LogRecord();
+        try (BinaryLogReader reader = new BinaryLogReader(file)) {
+            for (LogRecord expected : records) {
+                if (!reader.next(r)) throw new AssertionError("missing record " + expected.message);
+                Map<String, Object> want = new LinkedHashMap<>();
+                expected.metadata.forEach((k, v) -> want.put(k, v instanceof Integer ? ((Integer) v).longValue() : v));
+                if (r.level != expected.level || r.timestamp != expected.timestamp || !r.loggerName.equals(expected.loggerName)
+                        || !r.message.equals(expected.message) || !r.metadata.equals(want)
+                        || !new ArrayList<>(r.metadata.keySet()).equals(new ArrayList<>(want.keySet()))) {
+                    throw new AssertionError("round trip mismatch for " + expected.message);
+                }
+            }
+            if (reader.next(r)) throw new AssertionError("unexpected trailing record");
+        }
+        int matched = 0;
+        try (BinaryLogReader reader = new BinaryLogReader(file)) {
+            while (reader.next(r, Level.INFO, base - 10_000, base + 1)) matched++;
+        }
+        if (matched != 1) throw new AssertionError("filter matched " + matched + " records, expected 1");
+        System.out.println("binary log round trip OK (" + Files.size(Paths.get(file)) + " bytes)");
+    }
+
+    // Baseline for the filter: what grep-style tooling does with a text log.
+    static long scanText(String file, Level minLevel, long from, long to) throws IOException {
+        long matched = 0;
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                long ts = Instant.parse(line.substring(0, line.indexOf(' '))).toEpochMilli();
+                Level level = Level.valueOf(line.substring(line.indexOf('[') + 1, line.indexOf(']')));
+                if (level.getValue() >= minLevel.getValue() && ts >= from && ts < to) matched++;
+            }
+        }
+        return matched;
+    }
+
+    static void bench(int count, String dir) throws IOException {
+        Files.createDirectories(Paths.get(dir));
+        String[] names = {"api", "db.pool", "cache", "auth"};
+        List<LogRecord> records = new ArrayList<>(count);
+        Random rnd = new Random(42);
+        long ts = 1_700_000_000_000L;
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> meta = new LinkedHashMap<>();
+            meta.put("thread", rnd.nextInt(16));
+            meta.put("latency_ms", rnd.nextInt(500) / 10.0);
+            meta.put("user", "user" + rnd.nextInt(1000));
+            ts += rnd.nextInt(3);
+            LogRecord r = new LogRecord(names[i & 3], Level.values()[rnd.nextInt(5)], "request " + i + " served", meta);
+            r.timestamp = ts;
+            records.add(r);
+        }
+        long from = 1_700_000_000_000L + (ts - 1_700_000_000_000L) / 2, to = from + 60_000;
+        String textFile = dir + "/bench.log", binFile = dir + "/bench.blog";
+
+        for (int round = 0; round < 3; round++) { // first rounds are JIT warm-up
+            long start = System.nanoTime();
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(textFile)), 1 << 16)) {
+                for (LogRecord r : records) TEXT.encode(r).append((byte) '\n').writeTo(out);
+            }
+            long textWrite = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            BinaryLogHandler h = new BinaryLogHandler(binFile, Level.DEBUG);
+            write(h, records);
+            h.close();
+            long binWrite = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long textMatched = scanText(textFile, Level.ERROR, from, to);
+            long textScan = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long binMatched = 0;
+            LogRecord r = new LogRecord();
+            try (BinaryLogReader reader = new BinaryLogReader(binFile)) {
+                while (reader.next(r, Level.ERROR, from, to)) binMatched++;
+            }
+            long binScan = System.nanoTime() - start;
+            if (textMatched != binMatched) throw new AssertionError(textMatched + " != " + binMatched);
+
+            System.out.printf("round %d: %d records, filter >=ERROR in 60s window matched %d%n", round, count, binMatched);
+            System.out.printf("  text   %,12d bytes  write %8.0f k rec/s  filter %8.0f k rec/s%n",
+                    Files.size(Paths.get(textFile)), count / (textWrite / 1e6), count / (textScan / 1e6));
+            System.out.printf("  binary %,12d bytes  write %8.0f k rec/s  filter %8.0f k rec/s%n",
+                    Files.size(Paths.get(binFile)), count / (binWrite / 1e6), count / (binScan / 1e6));
+        }
+    }
 }
 
 /* ------------------------ DEMO MAIN ------------------------ */
 public class LoggerSystem {
     public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("bench")) {
+            FormatBenchmark.run();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("dispatch")) {
+            DispatcherBenchmark.run(args.length > 1 ? Integer.parseInt(args[1]) : 200_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("pressure")) {
+            PressureBenchmark.run(args.length > 1 ? Integer.parseInt(args[1]) : 20_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("disabled")) {
+            DisabledLevelBenchmark.run();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("bincheck")) {
+            BinaryLogTool.check("logs/roundtrip.blog");
+            return;
+        }
+        if (args.length > 0 && args[0].equals("binbench")) {
+            BinaryLogTool.bench(args.length > 1 ? Integer.parseInt(args[1]) : 500_000, "logs/bench");
+            return;
+        }
+        if (args.length > 1 && args[0].equals("binscan")) {
+            BinaryLogTool.scan(args[1],
+                    args.length > 2 ? Level.valueOf(args[2]) : Level.DEBUG,
+                    args.length > 3 ? Instant.parse(args[3]).toEpochMilli() : Long.MIN_VALUE,
+                    args.length > 4 ? Instant.parse(args[4]).toEpochMilli() : Long.MAX_VALUE);
+            return;
+        }
         Formatter fmt = new Formatter("{asctime} [{level}] {name}: {msg} {meta}");
         ConsoleHandler console = new ConsoleHandler(Level.DEBUG, fmt);
         RotatingFileHandler fileh = new RotatingFileHandler("logs/app.log", 2048, 3, Level.DEBUG, fmt);
 
         AsyncDispatcher dispatcher = new AsyncDispatcher(
-                Arrays.asList(console, fileh), 200, 20, 200, "drop_oldest"
+                Arrays.asList(console, fileh), 200, 20, 200, AsyncDispatcher.DropPolicy.DROP_OLDEST
         );
         dispatcher.start();
 
@@ -296,5 +1686,6 @@ public class LoggerSystem {
         Thread.sleep(500);
         dispatcher.stop();
         System.out.println("Demo complete. Dropped messages: " + dispatcher.getDroppedCount());
+        System.out.println("Dispatcher metrics: " + dispatcher.getMetrics());
     }
 }
@@ -12,19 +12,48 @@
 /*    Portfolio : https://manu-bharadwaj-portfolio.vercel.app/portfolio      */
 /* -----------------------------------------------------------------------  */
 
-import java.util.HashMap;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32C;
 
-public class URLShortener {
-    private HashMap<String, String> urlDb;
-    private HashMap<String, String> reverseDb;
-    private long counter;
+public class URLShortener implements Closeable {
+    final LinkStore store;
+    final HotLinkCache cache;
+    final CodeScrambler scrambler;
     private final String alphabet;
+    private final int[] digits = new int[128];
 
-    public URLShortener() {
-        urlDb = new HashMap<>();
-        reverseDb = new HashMap<>();
-        counter = 1;
+    public URLShortener() throws IOException {
+        this(Paths.get("urls-data"));
+    }
+
+    public URLShortener(Path dir) throws IOException {
+        this(dir, 1 << 16);
+    }
+
+    // cacheCapacity = 0 sends every retrieve to the store.
+    public URLShortener(Path dir, int cacheCapacity) throws IOException {
+        this(dir, cacheCapacity, LinkStore.Durability.WRITE);
+    }
+
+    public URLShortener(Path dir, int cacheCapacity, LinkStore.Durability durability) throws IOException {
         alphabet = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+        Arrays.fill(digits, -1);
+        for (int i = 0; i < alphabet.length(); i++) digits[alphabet.charAt(i)] = i;
+        store = new LinkStore(dir, 1 << 20, durability);
+        cache = cacheCapacity > 0 ? new HotLinkCache(cacheCapacity) : null;
+        scrambler = CodeScrambler.open(dir.resolve("codes.key"), store.size() > 0);
     }
 
     private String encode(long num) {
@@ -38,36 +67,1506 @@ public class URLShortener {
         return sb.reverse().toString();
     }
 
+    // Inverse of encode; -1 for anything that is not a valid code.
+    long decode(String code) {
+        if (code == null || code.isEmpty()) return -1;
+        long num = 0;
+        int base = alphabet.length();
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            int d = c < 128 ? digits[c] : -1;
+            if (d < 0 || num > (Long.MAX_VALUE - d) / base) return -1;
+            num = num * base + d;
+        }
+        return num;
+    }
+
     public String shorten(String longUrl) {
-        if (reverseDb.containsKey(longUrl)) {
-            return reverseDb.get(longUrl);
+        try {
+            return encode(scrambler.scramble(store.put(longUrl)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The store id behind a short code, or -1.
+    long idOf(String shortUrl) {
+        long code = decode(shortUrl);
+        return code < 0 ? -1 : scrambler.unscramble(code);
+    }
+
+    static final int BULK_CHUNK = 8192;
+
+    // Lazily shortens in order, BULK_CHUNK URLs at a time; closing the result closes the input.
+    public Stream<String> shortenAll(Stream<String> longUrls) {
+        Iterator<String> in = longUrls.iterator();
+        Iterator<String> out = new Iterator<String>() {
+            private final String[] chunk = new String[BULK_CHUNK];
+            private final long[] ids = new long[BULK_CHUNK];
+            private int pos, size;
+
+            @Override
+            public boolean hasNext() {
+                if (pos < size) return true;
+                pos = size = 0;
+                while (size < chunk.length && in.hasNext()) chunk[size++] = in.next();
+                if (size == 0) return false;
+                try {
+                    store.putAll(chunk, size, ids);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return true;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return encode(scrambler.scramble(ids[pos++]));
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(out, Spliterator.ORDERED | Spliterator.NONNULL),
+                false).onClose(longUrls::close);
+    }
+
+    // Resolves in order; unknown codes come back as null.
+    public Stream<String> retrieveAll(Stream<String> shortUrls) {
+        return shortUrls.map(this::retrieve);
+    }
+
+    // Streams "url" lines from in to "code<TAB>url" lines in out, one chunk in memory at a time.
+    // Blank lines are skipped. Returns the number of URLs written.
+    public long importFile(Path in, Path out) throws IOException {
+        String[] chunk = new String[BULK_CHUNK];
+        long[] ids = new long[BULK_CHUNK];
+        long count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(in, StandardCharsets.UTF_8);
+             BufferedWriter writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+            while (true) {
+                int size = 0;
+                String line;
+                while (size < chunk.length && (line = reader.readLine()) != null) {
+                    if (!line.isBlank()) chunk[size++] = line.strip();
+                }
+                if (size == 0) break;
+                store.putAll(chunk, size, ids);
+                for (int i = 0; i < size; i++) {
+                    writer.write(encode(scrambler.scramble(ids[i])));
+                    writer.write('\t');
+                    writer.write(chunk[i]);
+                    writer.newLine();
+                }
+                count += size;
+            }
         }
-        String shortUrl = encode(counter);
-        urlDb.put(shortUrl, longUrl);
-        reverseDb.put(longUrl, shortUrl);
-        counter++;
-        return shortUrl;
+        store.flush();
+        return count;
     }
 
     public String retrieve(String shortUrl) {
-        return urlDb.getOrDefault(shortUrl, null);
+        long id = idOf(shortUrl);
+        if (id <= 0) return null;
+        if (cache != null) {
+            String hit = cache.get(id);
+            if (hit != null) return hit;
+        }
+        try {
+            String url = store.get(id);
+            if (url != null && cache != null) cache.put(id, url);  // mappings never change, nothing to invalidate
+            return url;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
     }
 
     // -------------------------------
     // Demo
     // -------------------------------
-    public static void main(String[] args) {
-        URLShortener shortener = new URLShortener();
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("bench")) {
+            LinkStoreBenchmark.run(args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000,
+                    args.length > 2 ? Integer.parseInt(args[2]) : 4);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("import")) {
+            ImportBenchmark.run(args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("alloc")) {
+            AllocatorBenchmark.run(args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("zipf")) {
+            ZipfBenchmark.run(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000,
+                    args.length > 2 ? Integer.parseInt(args[2]) : 4);
+            return;
+        }
+        try (URLShortener shortener = new URLShortener()) {
+            String url1 = "https://www.youtube.com/@code-with-Bharadwaj";
+            String url2 = "https://github.com/Manu577228";
+
+            String s1 = shortener.shorten(url1);
+            String s2 = shortener.shorten(url2);
+
+            System.out.println("Short URL for YouTube: " + s1);
+            System.out.println("Short URL for GitHub  : " + s2);
+            System.out.println("Retrieve YouTube URL  : " + shortener.retrieve(s1));
+            System.out.println("Retrieve GitHub URL   : " + shortener.retrieve(s2));
+        }
+    }
+}
+
+/* ------------------------ MappedLongArray ------------------------ */
+// A file-backed long[] mapped in 16 MB chunks, so it can grow past the 2 GB limit of one
+// mapping. Chunks are mapped on first write; the file is sparse until written.
+class MappedLongArray implements Closeable {
+    private static final int CHUNK_SHIFT = 21;  // 2M longs per mapping
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private final FileChannel channel;
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+    MappedLongArray(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long longs = channel.size() >>> 3;
+        if (longs > 0) ensure(longs - 1);
+    }
+
+    long get(long i) {
+        MappedByteBuffer[] c = chunks;
+        int k = (int) (i >>> CHUNK_SHIFT);
+        return k < c.length ? c[k].getLong((int) (i & CHUNK_MASK) << 3) : 0;
+    }
+
+    void put(long i, long value) throws IOException {
+        int k = (int) (i >>> CHUNK_SHIFT);
+        if (k >= chunks.length) ensure(i);
+        chunks[k].putLong((int) (i & CHUNK_MASK) << 3, value);
+    }
+
+    private synchronized void ensure(long i) throws IOException {
+        int needed = (int) (i >>> CHUNK_SHIFT) + 1;
+        if (needed <= chunks.length) return;
+        MappedByteBuffer[] grown = Arrays.copyOf(chunks, needed);
+        for (int k = chunks.length; k < needed; k++) {
+            grown[k] = channel.map(FileChannel.MapMode.READ_WRITE, (long) k << (CHUNK_SHIFT + 3), 8L << CHUNK_SHIFT);
+        }
+        chunks = grown;
+    }
+
+    void force() {
+        for (MappedByteBuffer c : chunks) c.force();
+    }
+
+    void forceHeader() {
+        if (chunks.length > 0) chunks[0].force(0, 64);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
+
+/* ------------------------ IdAllocator ------------------------ */
+// Range leasing: a thread takes BLOCK ids with one atomic add, then hands them out with plain
+// increments on its own lease. Ids stay unique but are only roughly ordered, and a block a
+// thread never finishes leaves a gap. Several instances could share one id space the same way,
+// by leasing blocks from a coordinator instead of the local counter.
+// With a Mark, no block is handed out before a limit past its end has been persisted, so a
+// restart that resumes from the last mark never reissues an id, even one whose record was lost.
+class IdAllocator {
+    static final int BLOCK = 1024;
+    static final long RESERVE = 64L * BLOCK;  // how far a persisted mark runs ahead of the leases
+
+    interface Mark {
+        void persist(long limit) throws IOException;
+    }
+
+    private final AtomicLong nextBlock;  // first id of the next unleased block
+    private final long maxId;
+    private final Mark mark;             // null: ids only have to be unique within this process
+    private volatile long reserved;      // every id below this is covered by a persisted mark
+    private final ThreadLocal<long[]> lease = ThreadLocal.withInitial(() -> new long[2]);  // [next, end)
+
+    IdAllocator(long firstId, long maxId) {
+        this(firstId, maxId, null);
+    }
+
+    IdAllocator(long firstId, long maxId, Mark mark) {
+        this.nextBlock = new AtomicLong(firstId);
+        this.maxId = maxId;
+        this.mark = mark;
+        this.reserved = mark == null ? Long.MAX_VALUE : firstId;
+    }
+
+    long next() throws IOException {
+        long[] l = lease.get();
+        if (l[0] == l[1]) {
+            long start = nextBlock.getAndAdd(BLOCK);
+            if (start + BLOCK > reserved) reserve(start + BLOCK);
+            l[0] = start;
+            l[1] = start + BLOCK;
+        }
+        long id = l[0]++;
+        if (id > maxId) throw new IllegalStateException("id space exhausted");
+        return id;
+    }
+
+    private synchronized void reserve(long end) throws IOException {
+        if (end <= reserved) return;
+        long limit = end + RESERVE;
+        mark.persist(limit);
+        reserved = limit;
+    }
+}
+
+/* ------------------------ CodeScrambler ------------------------ */
+// Keyed 4-round Feistel permutation of the low 40 bits of an id (ids above stay as they are),
+// so consecutive ids get unrelated codes of at most 7 base62 characters. The round keys live in
+// the store directory; a store that already had sequential codes keeps them (identity), which
+// the key file records as four SEQUENTIAL keys. Every issued code depends on that file, so it is
+// made durable before first use and anything but four keys is refused.
+class CodeScrambler {
+    private static final int HALF = 20, ROUNDS = 4;
+    private static final long HALF_MASK = (1L << HALF) - 1, DOMAIN = (1L << (2 * HALF)) - 1;
+    private static final long SEQUENTIAL = 0x534551434f444553L;  // "SEQCODES"
+
+    private final long[] keys;  // empty = identity
+
+    CodeScrambler(long[] keys) {
+        this.keys = keys;
+    }
+
+    static CodeScrambler open(Path file, boolean sequentialCodesInUse) throws IOException {
+        if (Files.exists(file)) {
+            byte[] bytes = Files.readAllBytes(file);
+            if (bytes.length != ROUNDS * 8) throw new IOException(file + " holds " + bytes.length + " bytes, not " + ROUNDS + " keys");
+            ByteBuffer b = ByteBuffer.wrap(bytes);
+            long[] keys = new long[ROUNDS];
+            boolean sequential = true;
+            for (int i = 0; i < ROUNDS; i++) {
+                keys[i] = b.getLong();
+                sequential &= keys[i] == SEQUENTIAL;
+            }
+            return new CodeScrambler(sequential ? new long[0] : keys);
+        }
+        long[] keys = new long[ROUNDS];
+        java.security.SecureRandom rnd = new java.security.SecureRandom();
+        for (int i = 0; i < ROUNDS; i++) keys[i] = sequentialCodesInUse ? SEQUENTIAL : rnd.nextLong();
+        ByteBuffer b = ByteBuffer.allocate(ROUNDS * 8);
+        for (long k : keys) b.putLong(k);
+        b.flip();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (b.hasRemaining()) ch.write(b);
+            ch.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        try (FileChannel d = FileChannel.open(file.getParent(), StandardOpenOption.READ)) {
+            d.force(true);  // the rename, before any code made with these keys is handed out
+        }
+        return new CodeScrambler(sequentialCodesInUse ? new long[0] : keys);
+    }
 
-        String url1 = "https://www.youtube.com/@code-with-Bharadwaj";
-        String url2 = "https://github.com/Manu577228";
+    private static long round(long half, long key) {
+        return HotLinkCache.spread(half ^ key) & HALF_MASK;
+    }
+
+    long scramble(long id) {
+        if ((id & ~DOMAIN) != 0 || keys.length == 0) return id;
+        long l = id >>> HALF, r = id & HALF_MASK;
+        for (long k : keys) {
+            long t = r;
+            r = l ^ round(r, k);
+            l = t;
+        }
+        return l << HALF | r;
+    }
+
+    long unscramble(long code) {
+        if ((code & ~DOMAIN) != 0 || keys.length == 0) return code;
+        long l = code >>> HALF, r = code & HALF_MASK;
+        for (int i = keys.length - 1; i >= 0; i--) {
+            long t = l;
+            l = r ^ round(l, keys[i]);
+            r = t;
+        }
+        return l << HALF | r;
+    }
+}
+
+/* ------------------------ LinkStore ------------------------ */
+// Embedded log-structured storage for the shortener:
+//   shard-N.log    append-only records [int urlLen][int crc32c(id, url)][long id][url utf8], shard = id % SHARDS
+//   shard-N.idx    mapped long array: header, then (log offset + 1) at id / SHARDS
+//   reverse-N.idx  mapped open-addressing table of (url fingerprint, id) for dedup, striped by hash
+//   ids.mark       two alternating [long limit][int crc32c] slots: no id at or above the newest valid limit was issued
+// The logs are the source of truth. The .idx files are only trusted up to the checkpoint stored
+// in each shard header and are replayed from the log tail past it, so restart time depends on
+// the checkpoint interval, not on how many mappings the store holds. A torn or corrupt tail
+// record is truncated away on open. A put only returns once its record has reached the OS
+// (and the disk, with Durability.FSYNC).
+class LinkStore implements Closeable {
+    // WRITE survives a process crash, FSYNC also survives losing the machine.
+    enum Durability { WRITE, FSYNC }
+
+    static final int SHARDS = 16, SHARD_SHIFT = 4;
+    static final int STRIPES = 16;
+    static final int MAX_URL_BYTES = 1 << 16;
+    static final long CHECKPOINT_BYTES = 16L << 20;  // bounds the log tail replayed on restart
+    static final long MAGIC = 0x55524c53544f5231L;   // "URLSTOR1"
+    static final long REVERSE_MAGIC = 0x55524c5245563231L;  // "URLREV21"
+    static final int ID_BITS = 40;                   // ids are packed next to a fingerprint in reverse slots
+    static final long ID_MASK = (1L << ID_BITS) - 1;
+    static final int HEADER = 8;                     // longs reserved at the start of every .idx file
+    static final int LOG_CHUNK_SHIFT = 20, LOG_CHUNK_SIZE = 1 << LOG_CHUNK_SHIFT;  // read mappings of the log
+    static final int MARK_SLOT = 16;                 // bytes per ids.mark slot
+
+    interface IdMatcher {
+        boolean matches(long id) throws IOException;
+    }
+
+    private static final ThreadLocal<CRC32C> CRC = ThreadLocal.withInitial(CRC32C::new);
+    private static final ThreadLocal<ByteBuffer[]> READ_BUFFER = ThreadLocal.withInitial(() -> new ByteBuffer[1]);
+
+    private final Shard[] shards = new Shard[SHARDS];
+    private final ReverseStripe[] stripes = new ReverseStripe[STRIPES];
+    private final IdAllocator ids;
+    private final Durability durability;
+    private final FileChannel idMark;
+    private int markSlot;  // ids.mark slot the next limit goes to: never the one holding the newest
+    private final AtomicLong uncheckpointedBytes = new AtomicLong();
+    private final AtomicBoolean checkpointing = new AtomicBoolean();
+    long recoveredRecords, truncatedBytes;  // what the last open had to replay / cut off
+
+    LinkStore(Path dir, long expectedMappings) throws IOException {
+        this(dir, expectedMappings, Durability.WRITE);
+    }
+
+    LinkStore(Path dir, long expectedMappings, Durability durability) throws IOException {
+        this.durability = durability;
+        Files.createDirectories(dir);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReverseStripe(dir.resolve("reverse-" + i + ".idx"), expectedMappings / STRIPES);
+        }
+        boolean rebuildReverse = false;
+        for (ReverseStripe s : stripes) rebuildReverse |= s.fresh;
+        long maxId = 0;
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(i, dir);
+            shards[i].recover(rebuildReverse);
+            maxId = Math.max(maxId, shards[i].maxId());
+        }
+        for (Shard s : shards) s.replayReverse();  // a stripe that grows reads records from every shard
+        idMark = FileChannel.open(dir.resolve("ids.mark"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer m = ByteBuffer.allocate(2 * MARK_SLOT);
+        while (m.hasRemaining() && idMark.read(m, m.position()) > 0) { }
+        long limit = 0;
+        for (int k = 0; k < 2; k++) {
+            long v = m.getLong(k * MARK_SLOT);
+            if (v > limit && m.getInt(k * MARK_SLOT + 8) == checksum(v, m.array(), 0, 0)) {
+                limit = v;
+                markSlot = k ^ 1;
+            }
+        }
+        try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+            d.force(true);  // directory entries of files this open created
+        }
+        ids = new IdAllocator(Math.max(maxId + 1, limit), ID_MASK, this::persistMark);
+    }
+
+    // Called by the allocator, one at a time, before it leases ids below limit.
+    private void persistMark(long limit) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(MARK_SLOT).putLong(limit).putInt(checksum(limit, new byte[0], 0, 0));
+        b.flip();
+        long pos = (long) markSlot * MARK_SLOT;
+        while (b.hasRemaining()) pos += idMark.write(b, pos);
+        idMark.force(false);
+        markSlot ^= 1;
+    }
+
+    static long hash64(byte[] b, int off, int len) {
+        long h = 0xcbf29ce484222325L;  // FNV-1a, then a murmur3 finalizer to spread the bits
+        for (int i = off; i < off + len; i++) h = (h ^ (b[i] & 0xFF)) * 0x100000001b3L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    static int checksum(long id, byte[] b, int off, int len) {
+        CRC32C crc = CRC.get();
+        crc.reset();
+        for (int shift = 56; shift >= 0; shift -= 8) crc.update((int) (id >>> shift));
+        crc.update(b, off, len);
+        return (int) crc.getValue();
+    }
+
+    static ByteBuffer readBuffer(int size) {
+        ByteBuffer[] holder = READ_BUFFER.get();
+        if (holder[0] == null || holder[0].capacity() < size) holder[0] = ByteBuffer.allocate(Math.max(512, size));
+        return holder[0];
+    }
+
+    private Shard shardOf(long id) {
+        return shards[(int) (id & (SHARDS - 1))];
+    }
+
+    private ReverseStripe stripeOf(long hash) {
+        return stripes[(int) (hash >>> 60)];
+    }
+
+    private static byte[] utf8(String url) {
+        byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_URL_BYTES) throw new IllegalArgumentException("URL longer than " + MAX_URL_BYTES + " bytes");
+        return bytes;
+    }
+
+    // Caller holds stripe.lock. Returns the existing id for the URL or appends it under a new one.
+    private long putLocked(ReverseStripe stripe, long hash, byte[] bytes) throws IOException {
+        long id = stripe.find(hash, candidate -> shardOf(candidate).matches(candidate, bytes));
+        if (id != 0) return id;
+        id = ids.next();
+        uncheckpointedBytes.addAndGet(shardOf(id).append(id, bytes));
+        stripe.insert(hash, id);
+        return id;
+    }
 
-        String s1 = shortener.shorten(url1);
-        String s2 = shortener.shorten(url2);
+    private void maybeCheckpoint() throws IOException {
+        if (uncheckpointedBytes.get() >= CHECKPOINT_BYTES && checkpointing.compareAndSet(false, true)) {
+            try {
+                checkpoint();
+            } finally {
+                checkpointing.set(false);
+            }
+        }
+    }
+
+    // Returns the id already mapped to this URL, or stores it under a new id.
+    long put(String url) throws IOException {
+        byte[] bytes = utf8(url);
+        long hash = hash64(bytes, 0, bytes.length);
+        ReverseStripe stripe = stripeOf(hash);
+        long id;
+        stripe.lock.lock();
+        try {
+            id = putLocked(stripe, hash, bytes);
+        } finally {
+            stripe.lock.unlock();
+        }
+        shardOf(id).sync(id, durability == Durability.FSYNC);  // a dedup hit may still be in another put's buffer
+        maybeCheckpoint();
+        return id;
+    }
+
+    // put for urls[0..n), ids into ids[]. The chunk is grouped by stripe so each stripe lock is
+    // taken once per chunk rather than once per URL; duplicates inside the chunk get one id.
+    void putAll(String[] urls, int n, long[] ids) throws IOException {
+        byte[][] bytes = new byte[n][];
+        long[] hashes = new long[n];
+        int[] start = new int[STRIPES + 1];
+        for (int i = 0; i < n; i++) {
+            bytes[i] = utf8(urls[i]);
+            hashes[i] = hash64(bytes[i], 0, bytes[i].length);
+            start[(int) (hashes[i] >>> 60) + 1]++;
+        }
+        for (int k = 0; k < STRIPES; k++) start[k + 1] += start[k];
+        int[] order = new int[n];
+        int[] fill = Arrays.copyOf(start, STRIPES);
+        for (int i = 0; i < n; i++) order[fill[(int) (hashes[i] >>> 60)]++] = i;
+        for (int k = 0; k < STRIPES; k++) {
+            if (start[k] == start[k + 1]) continue;
+            ReverseStripe stripe = stripes[k];
+            stripe.lock.lock();
+            try {
+                for (int j = start[k]; j < start[k + 1]; j++) {
+                    int i = order[j];
+                    ids[i] = putLocked(stripe, hashes[i], bytes[i]);
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        for (Shard s : shards) {  // one write (and force) per shard for the whole chunk
+            long end = s.flush();
+            if (durability == Durability.FSYNC) s.force(end);
+        }
+        maybeCheckpoint();
+    }
+
+    String get(long id) throws IOException {
+        return id > 0 ? shardOf(id).read(id) : null;
+    }
+
+    long size() {
+        long n = 0;
+        for (Shard s : shards) n += s.records;
+        return n;
+    }
+
+    // Hands buffered appends to the OS: they survive a process crash from here on.
+    void flush() throws IOException {
+        for (Shard s : shards) s.flush();
+    }
+
+    // Makes everything appended so far durable and moves each shard's replay start past it.
+    synchronized void checkpoint() throws IOException {
+        long[] ends = new long[SHARDS], slots = new long[SHARDS], records = new long[SHARDS];
+        for (ReverseStripe s : stripes) s.lock.lock();  // no put is half done while the ends are taken
+        try {
+            for (int i = 0; i < SHARDS; i++) {
+                ends[i] = shards[i].flush();
+                slots[i] = shards[i].slots;
+                records[i] = shards[i].records;
+            }
+            uncheckpointedBytes.set(0);
+        } finally {
+            for (ReverseStripe s : stripes) s.lock.unlock();
+        }
+        for (Shard s : shards) {
+            s.log.force(false);
+            s.index.force();
+        }
+        for (ReverseStripe s : stripes) {
+            s.lock.lock();
+            try {
+                s.table.force();
+            } finally {
+                s.lock.unlock();
+            }
+        }
+        for (int i = 0; i < SHARDS; i++) shards[i].markCheckpoint(ends[i], slots[i], records[i]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        checkpoint();
+        for (Shard s : shards) {
+            s.log.close();
+            s.index.close();
+        }
+        for (ReverseStripe s : stripes) s.table.close();
+        idMark.close();
+    }
+
+    /* One append-only log and its id -> offset index. */
+    final class Shard {
+        final ReentrantLock lock = new ReentrantLock();
+        final int number;
+        final FileChannel log;
+        final MappedLongArray index;  // [0] magic, [1] checkpointed log length, [2] slots in use, [3] records
+        private final ByteBuffer pending = ByteBuffer.allocate(2 * MAX_URL_BYTES);
+        private volatile long flushedEnd;  // log length handed to the OS; pending bytes follow it
+        private volatile long forcedEnd;   // log length known to be on disk
+        private final Object forceLock = new Object();
+        private volatile MappedByteBuffer[] logChunks = new MappedByteBuffer[0];
+        volatile long slots;               // highest id / SHARDS written, plus one
+        volatile long records;
+        private long replayFrom;           // log offset recover started at
+
+        Shard(int number, Path dir) throws IOException {
+            this.number = number;
+            this.log = FileChannel.open(dir.resolve("shard-" + number + ".log"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.index = new MappedLongArray(dir.resolve("shard-" + number + ".idx"));
+        }
+
+        long maxId() {
+            return slots == 0 ? 0 : ((slots - 1) << SHARD_SHIFT) + number;
+        }
 
-        System.out.println("Short URL for YouTube: " + s1);
-        System.out.println("Short URL for GitHub  : " + s2);
-        System.out.println("Retrieve YouTube URL  : " + shortener.retrieve(s1));
-        System.out.println("Retrieve GitHub URL   : " + shortener.retrieve(s2));
+        // fromScratch replays the whole log, e.g. when the reverse tables have to be rebuilt.
+        void recover(boolean fromScratch) throws IOException {
+            long end = log.size();
+            long pos = 0;
+            if (index.get(0) == MAGIC && index.get(1) <= end && !fromScratch) {
+                pos = index.get(1);
+                slots = index.get(2);
+                records = index.get(3);
+            } else {
+                index.put(0, MAGIC);
+            }
+            replayFrom = pos;
+            ByteBuffer b = ByteBuffer.allocate(1 << 20);
+            long readPos = pos;
+            boolean corrupt = false;
+            while (!corrupt) {
+                int n = log.read(b, readPos);
+                if (n > 0) readPos += n;
+                b.flip();
+                while (b.remaining() >= 16) {
+                    int p = b.position();
+                    int len = b.getInt(p);
+                    long id = b.getLong(p + 8);
+                    if (len < 0 || len > MAX_URL_BYTES) {
+                        corrupt = true;
+                        break;
+                    }
+                    if (b.remaining() < 16 + len) break;
+                    if ((id & (SHARDS - 1)) != number || id <= 0 || checksum(id, b.array(), p + 16, len) != b.getInt(p + 4)) {
+                        corrupt = true;
+                        break;
+                    }
+                    index.put(HEADER + (id >>> SHARD_SHIFT), pos + 1);
+                    slots = Math.max(slots, (id >>> SHARD_SHIFT) + 1);
+                    recoveredRecords++;
+                    records++;
+                    pos += 16 + len;
+                    b.position(p + 16 + len);
+                }
+                if (n <= 0) break;
+                b.compact();
+            }
+            if (pos < end) {
+                log.truncate(pos);
+                truncatedBytes += end - pos;
+            }
+            flushedEnd = pos;
+        }
+
+        // Second pass, once every shard has recovered: adds the records recover replayed to the
+        // reverse tables. Run earlier, a table that grows would read shards with no log end yet.
+        void replayReverse() throws IOException {
+            ByteBuffer b = ByteBuffer.allocate(1 << 20);
+            long pos = replayFrom;
+            while (pos < flushedEnd) {
+                b.clear().limit((int) Math.min(b.capacity(), flushedEnd - pos));
+                fill(b, pos);
+                int n = b.position(), p = 0;
+                while (n - p >= 16 && n - p >= 16 + b.getInt(p)) {  // recover already checked every record
+                    int len = b.getInt(p);
+                    long hash = hash64(b.array(), p + 16, len);
+                    long id = b.getLong(p + 8);
+                    ReverseStripe stripe = stripeOf(hash);
+                    if (!stripe.contains(hash, id)) stripe.insert(hash, id);
+                    p += 16 + len;
+                }
+                if (p == 0) throw new IOException("short read replaying shard " + number);
+                pos += p;
+            }
+        }
+
+        // Returns the number of log bytes the record takes.
+        int append(long id, byte[] url) throws IOException {
+            int size = 16 + url.length;
+            lock.lock();
+            try {
+                if (pending.remaining() < size) flushLocked();
+                long offset = flushedEnd + pending.position();
+                pending.putInt(url.length).putInt(checksum(id, url, 0, url.length)).putLong(id).put(url);
+                long slot = id >>> SHARD_SHIFT;
+                index.put(HEADER + slot, offset + 1);
+                if (slot >= slots) slots = slot + 1;
+                records++;
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Hands the record for id to the OS, and to the disk if force is set. Records buffered by
+        // other puts go along, so concurrent puts share the write and the force.
+        void sync(long id, boolean force) throws IOException {
+            long end = index.get(HEADER + (id >>> SHARD_SHIFT));  // record offset + 1
+            if (end > flushedEnd) flush();
+            if (force) force(end);
+        }
+
+        void force(long end) throws IOException {
+            if (end <= forcedEnd) return;
+            synchronized (forceLock) {
+                if (end <= forcedEnd) return;
+                long upTo = flushedEnd;
+                log.force(false);
+                forcedEnd = upTo;
+            }
+        }
+
+        long flush() throws IOException {
+            lock.lock();
+            try {
+                flushLocked();
+                return flushedEnd;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void flushLocked() throws IOException {
+            pending.flip();
+            long pos = flushedEnd;
+            while (pending.hasRemaining()) pos += log.write(pending, pos);
+            pending.clear();
+            flushedEnd = pos;
+        }
+
+        void markCheckpoint(long logLength, long slotCount, long recordCount) throws IOException {
+            index.put(1, logLength);
+            index.put(2, slotCount);
+            index.put(3, recordCount);
+            index.forceHeader();
+        }
+
+        // The record for id with its URL at [16, 16 + len), or null if there is none.
+        ByteBuffer readRecord(long id) throws IOException {
+            long slot = id >>> SHARD_SHIFT;
+            if (slot >= slots) return null;
+            long offset = index.get(HEADER + slot) - 1;
+            if (offset < 0) return null;
+            if (offset >= flushedEnd) flush();  // still in the append buffer
+            ByteBuffer b;
+            MappedByteBuffer chunk = logChunk((int) (offset >>> LOG_CHUNK_SHIFT));
+            int at = (int) (offset & (LOG_CHUNK_SIZE - 1));
+            int mappedLen = chunk != null && at + 16 <= LOG_CHUNK_SIZE ? chunk.getInt(at) : -1;
+            if (mappedLen >= 0 && mappedLen <= MAX_URL_BYTES && at + 16 + mappedLen <= LOG_CHUNK_SIZE) {
+                b = readBuffer(16 + mappedLen);  // no syscall: copy straight out of the page cache
+                chunk.get(at, b.array(), 0, 16 + mappedLen);
+                b.clear().position(16 + mappedLen);
+            } else {
+                b = readBuffer(512);
+                b.clear().limit((int) Math.min(b.capacity(), flushedEnd - offset));
+                fill(b, offset);
+            }
+            if (b.position() < 16) return null;
+            int len = b.getInt(0);
+            if (len < 0 || len > MAX_URL_BYTES || b.getLong(8) != id) return null;
+            if (b.position() < 16 + len) {
+                b = readBuffer(16 + len);
+                b.clear().limit(16 + len);
+                fill(b, offset);
+                if (b.position() < 16 + len) return null;
+            }
+            return checksum(id, b.array(), 16, len) == b.getInt(4) ? b : null;
+        }
+
+        // Read-only mapping of a completed LOG_CHUNK_SIZE region of the log, null for the growing tail.
+        private MappedByteBuffer logChunk(int k) throws IOException {
+            MappedByteBuffer[] c = logChunks;
+            if (k < c.length) return c[k];
+            if (((long) k + 1) << LOG_CHUNK_SHIFT > flushedEnd) return null;
+            synchronized (this) {
+                c = logChunks;
+                int complete = (int) (flushedEnd >>> LOG_CHUNK_SHIFT);
+                if (k >= c.length) {
+                    MappedByteBuffer[] grown = Arrays.copyOf(c, complete);
+                    for (int j = c.length; j < complete; j++) {
+                        grown[j] = log.map(FileChannel.MapMode.READ_ONLY, (long) j << LOG_CHUNK_SHIFT, LOG_CHUNK_SIZE);
+                    }
+                    logChunks = c = grown;
+                }
+                return c[k];
+            }
+        }
+
+        private void fill(ByteBuffer b, long offset) throws IOException {
+            while (b.hasRemaining()) {
+                if (log.read(b, offset + b.position()) < 0) return;
+            }
+        }
+
+        String read(long id) throws IOException {
+            ByteBuffer b = readRecord(id);
+            return b == null ? null : new String(b.array(), 16, b.getInt(0), StandardCharsets.UTF_8);
+        }
+
+        boolean matches(long id, byte[] url) throws IOException {
+            ByteBuffer b = readRecord(id);
+            return b != null && Arrays.equals(b.array(), 16, 16 + b.getInt(0), url, 0, url.length);
+        }
+    }
+
+    /* Open-addressing table of (24-bit url fingerprint << 40 | id), one long per slot; a fingerprint
+       hit is confirmed against the log. The full hash is not kept, so growing re-hashes each URL
+       from the log: rare, and avoided altogether when expectedMappings is right. */
+    final class ReverseStripe {
+        final ReentrantLock lock = new ReentrantLock();
+        private final Path path;
+        final boolean fresh;    // created empty (or replaced an unknown layout): needs a full replay
+        MappedLongArray table;  // [0] magic, [1] capacity, [2] size, then packed slots
+        private long capacity, size;
+
+        ReverseStripe(Path path, long expected) throws IOException {
+            this.path = path;
+            Files.deleteIfExists(tmpPath());  // a resize that did not finish
+            table = new MappedLongArray(path);
+            fresh = table.get(0) != REVERSE_MAGIC;
+            if (!fresh) {
+                capacity = table.get(1);
+                size = table.get(2);
+            } else {
+                table.close();
+                Files.delete(path);
+                table = new MappedLongArray(path);
+                capacity = Long.highestOneBit(Math.max(1024, expected * 2) - 1) << 1;
+                table.put(1, capacity);
+                table.put(0, REVERSE_MAGIC);
+            }
+        }
+
+        private Path tmpPath() {
+            return path.resolveSibling(path.getFileName() + ".tmp");
+        }
+
+        private long fingerprint(long hash) {
+            return (hash >>> 36) & 0xFFFFFF;  // clear of the slot bits (low) and the stripe bits (top 4)
+        }
+
+        long find(long hash, IdMatcher matcher) throws IOException {
+            long mask = capacity - 1, fp = fingerprint(hash);
+            for (long i = hash & mask; ; i = (i + 1) & mask) {
+                long slot = table.get(HEADER + i);
+                if (slot == 0) return 0;
+                if (slot >>> ID_BITS == fp && matcher.matches(slot & ID_MASK)) return slot & ID_MASK;
+            }
+        }
+
+        boolean contains(long hash, long id) {
+            long mask = capacity - 1, packed = fingerprint(hash) << ID_BITS | id;
+            for (long i = hash & mask; ; i = (i + 1) & mask) {
+                long slot = table.get(HEADER + i);
+                if (slot == 0) return false;
+                if (slot == packed) return true;
+            }
+        }
+
+        void insert(long hash, long id) throws IOException {
+            if ((size + 1) * 10 > capacity * 7) grow();
+            place(table, capacity, hash, fingerprint(hash) << ID_BITS | id);
+            table.put(2, ++size);
+        }
+
+        private void place(MappedLongArray t, long capacity, long hash, long packed) throws IOException {
+            long mask = capacity - 1;
+            long i = hash & mask;
+            while (t.get(HEADER + i) != 0) i = (i + 1) & mask;
+            t.put(HEADER + i, packed);
+        }
+
+        // Rehash into a file twice the size and swap it in with an atomic rename.
+        private void grow() throws IOException {
+            long newCapacity = capacity * 2;
+            Path tmp = tmpPath();
+            MappedLongArray grown = new MappedLongArray(tmp);
+            for (long i = 0; i < capacity; i++) {
+                long slot = table.get(HEADER + i);
+                if (slot == 0) continue;
+                ByteBuffer record = shardOf(slot & ID_MASK).readRecord(slot & ID_MASK);
+                if (record == null) continue;  // its log record was lost in a crash: nothing to dedup against
+                place(grown, newCapacity, hash64(record.array(), 16, record.getInt(0)), slot);
+            }
+            grown.put(1, newCapacity);
+            grown.put(2, size);
+            grown.put(0, REVERSE_MAGIC);
+            grown.force();
+            grown.close();
+            table.close();
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            table = new MappedLongArray(path);
+            capacity = newCapacity;
+        }
+    }
+}
+
+/* ------------------------ HotLinkCache ------------------------ */
+// W-TinyLFU cache of id -> URL for retrieve. Keys stay primitive longs (the decoded code),
+// nodes live in parallel arrays, so a hit allocates nothing. Hash-partitioned into
+// segments, each with its own lock, its own policy and frequency sketch:
+//   window LRU (1%) -> main SLRU (probation 20%, protected 80%)
+// A record leaving the window only enters main if the sketch has seen it more often than
+// main's eviction victim, so one-off lookups cannot flush the hot set.
+class HotLinkCache {
+    private static final int SEGMENTS = 16;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    HotLinkCache(int capacity) {
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment(Math.max(4, capacity / SEGMENTS));
+    }
+
+    static long spread(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+
+    private Segment segmentFor(long h) {
+        return segments[(int) (h >>> 60)];
+    }
+
+    String get(long key) {
+        long h = spread(key);
+        return segmentFor(h).get(key, h);
+    }
+
+    void put(long key, String value) {
+        long h = spread(key);
+        segmentFor(h).put(key, h, value);
+    }
+
+    long hits() {
+        long n = 0;
+        for (Segment s : segments) n += s.hits;
+        return n;
+    }
+
+    long misses() {
+        long n = 0;
+        for (Segment s : segments) n += s.misses;
+        return n;
+    }
+
+    /* 4-bit count-min sketch, 16 counters to a long, halved every 10 * capacity samples. A key's
+       four counters all sit in one 64-byte block (8 longs), so an access costs one cache miss. */
+    static final class FrequencySketch {
+        private final long[] table;
+        private final int blockMask;
+        private final int sampleSize;
+        private int samples;
+
+        FrequencySketch(int capacity) {
+            int len = Integer.highestOneBit(Math.max(64, capacity) - 1) << 1;
+            table = new long[len];
+            blockMask = (len >>> 3) - 1;
+            sampleSize = 10 * Math.max(8, capacity);
+        }
+
+        // Counter 'row' of a key: one of the block's 8 longs, one of its 16 nibbles.
+        private int indexOf(long h, int row) {
+            return (((int) h & blockMask) << 3) + (int) ((h >>> (32 + 3 * row)) & 7);
+        }
+
+        private static int shiftOf(long h, int row) {
+            return (int) ((h >>> (44 + 4 * row)) & 15) << 2;
+        }
+
+        void increment(long h) {
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                int i = indexOf(h, row), shift = shiftOf(h, row);
+                if (((table[i] >>> shift) & 15) < 15) {
+                    table[i] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++samples >= sampleSize) {
+                for (int i = 0; i < table.length; i++) table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+                samples /= 2;
+            }
+        }
+
+        int frequency(long h) {
+            int min = 15;
+            for (int row = 0; row < 4; row++) {
+                min = Math.min(min, (int) (table[indexOf(h, row)] >>> shiftOf(h, row)) & 15);
+            }
+            return min;
+        }
+    }
+
+    static final class Segment {
+        private static final byte WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+        private final int capacity, windowMax, protectedMax;
+        private final long[] keys, hashes;
+        private final String[] values;
+        private final long[] links;       // prev << 32 | next; circular lists, nodes capacity..capacity+2 are the heads
+        private final byte[] queue;
+        private final int[] sizes = new int[3];
+        private final int[] table;        // open addressing on hash, node + 1, 0 = empty
+        private final int tableMask;
+        private final FrequencySketch sketch;
+        private int used;
+        long hits, misses;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.windowMax = Math.max(1, capacity / 100);
+            this.protectedMax = (capacity - windowMax) * 4 / 5;
+            keys = new long[capacity];
+            hashes = new long[capacity];
+            values = new String[capacity];
+            links = new long[capacity + 3];
+            queue = new byte[capacity];
+            for (int q = 0; q < 3; q++) links[capacity + q] = link(capacity + q, capacity + q);
+            table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+            tableMask = table.length - 1;
+            sketch = new FrequencySketch(capacity);
+        }
+
+        private int find(long key, long h) {
+            for (int i = (int) h & tableMask; ; i = (i + 1) & tableMask) {
+                int n = table[i] - 1;
+                if (n < 0 || keys[n] == key) return n;
+            }
+        }
+
+        private static long link(int prev, int next) {
+            return (long) prev << 32 | (next & 0xFFFFFFFFL);
+        }
+
+        private int prev(int n) {
+            return (int) (links[n] >>> 32);
+        }
+
+        private int next(int n) {
+            return (int) links[n];
+        }
+
+        private void setPrev(int n, int p) {
+            links[n] = link(p, next(n));
+        }
+
+        private void setNext(int n, int x) {
+            links[n] = link(prev(n), x);
+        }
+
+        private void unlink(int n) {
+            int p = prev(n), x = next(n);
+            setNext(p, x);
+            setPrev(x, p);
+            sizes[queue[n]]--;
+        }
+
+        private void pushMru(int n, byte q) {
+            int head = capacity + q, last = prev(head);
+            links[n] = link(last, head);
+            setNext(last, n);
+            setPrev(head, n);
+            queue[n] = q;
+            sizes[q]++;
+        }
+
+        private int lru(byte q) {
+            int n = next(capacity + q);
+            return n == capacity + q ? -1 : n;
+        }
+
+        synchronized String get(long key, long h) {
+            sketch.increment(h);
+            int n = find(key, h);
+            if (n < 0) {
+                misses++;
+                return null;
+            }
+            hits++;
+            byte q = queue[n];
+            unlink(n);
+            if (q == PROBATION) {
+                pushMru(n, PROTECTED);
+                if (sizes[PROTECTED] > protectedMax) {
+                    int demoted = lru(PROTECTED);
+                    unlink(demoted);
+                    pushMru(demoted, PROBATION);
+                }
+            } else {
+                pushMru(n, q);
+            }
+            return values[n];
+        }
+
+        synchronized void put(long key, long h, String value) {
+            int n = find(key, h);
+            if (n >= 0) {
+                values[n] = value;
+                return;
+            }
+            if (used == capacity) n = evict();
+            else n = used++;
+            keys[n] = key;
+            hashes[n] = h;
+            values[n] = value;
+            int i = (int) h & tableMask;
+            while (table[i] != 0) i = (i + 1) & tableMask;
+            table[i] = n + 1;
+            pushMru(n, WINDOW);
+            if (sizes[WINDOW] > windowMax) {  // window overflow moves its LRU into main on probation
+                int candidate = lru(WINDOW);
+                unlink(candidate);
+                pushMru(candidate, PROBATION);
+            }
+        }
+
+        // Frees one node: the newest probation entry (last window graduate) duels main's LRU victim.
+        private int evict() {
+            int candidate = prev(capacity + PROBATION);
+            int victim = lru(PROBATION);
+            if (victim < 0 || victim == candidate) {
+                victim = lru(PROTECTED);
+                if (victim < 0) victim = lru(WINDOW);
+            }
+            if (candidate >= capacity || candidate == victim) {
+                candidate = victim;
+            } else if (sketch.frequency(hashes[candidate]) > sketch.frequency(hashes[victim])) {
+                candidate = victim;  // the newcomer is hotter: drop the old victim instead
+            }
+            remove(candidate);
+            return candidate;
+        }
+
+        private void remove(int n) {
+            unlink(n);
+            values[n] = null;
+            int i = (int) hashes[n] & tableMask;
+            while (table[i] != n + 1) i = (i + 1) & tableMask;
+            // backward-shift delete keeps every probe chain unbroken
+            for (int j = (i + 1) & tableMask; table[j] != 0; j = (j + 1) & tableMask) {
+                int home = (int) hashes[table[j] - 1] & tableMask;
+                if (((j - home) & tableMask) >= ((j - i) & tableMask)) {
+                    table[i] = table[j];
+                    i = j;
+                }
+            }
+            table[i] = 0;
+        }
+    }
+}
+
+/* ------------------------ ZipfBenchmark ------------------------ */
+// Redirect lookups with Zipf(0.99)-skewed popularity, through retrieve:
+// java [-Dcache=entries] URLShortener zipf [urls] [threads]   (cache defaults to 1% of urls)
+// Compares no cache, a same-sized LRU and HotLinkCache on throughput, hit ratio and bytes/op;
+// "decode only" is the cost of the loop itself (random code, decode) with no lookup.
+class ZipfBenchmark {
+    static int[] zipfSample(int n, int samples, double skew, long seed) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) cdf[i] = sum += 1 / Math.pow(i + 1, skew);
+        int[] out = new int[samples];
+        Random rnd = new Random(7);  // same popularity ranking for every stream
+        int[] rankToItem = new int[n];  // popular items scattered over the id space
+        for (int i = 0; i < n; i++) rankToItem[i] = i;
+        for (int i = n - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1), t = rankToItem[i];
+            rankToItem[i] = rankToItem[j];
+            rankToItem[j] = t;
+        }
+        rnd = new Random(seed);
+        for (int k = 0; k < samples; k++) {
+            int idx = Arrays.binarySearch(cdf, rnd.nextDouble() * sum);
+            out[k] = rankToItem[Math.min(n - 1, idx < 0 ? -idx - 1 : idx)];
+        }
+        return out;
+    }
+
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    interface Lookup {
+        String get(String code);
+    }
+
+    static void measure(String label, Lookup lookup, String[] codes, int[][] streams) throws Exception {
+        for (int round = 0; round < 3; round++) {  // first rounds are JIT warm-up and cache fill
+            long[] bytes = new long[1];
+            double opsPerSec = LinkStoreBenchmark.parallel(streams.length, streams.length, (from, to) -> {
+                long before = allocatedBytes();
+                for (int t = from; t < to; t++) {
+                    for (int i : streams[t]) {
+                        if (lookup.get(codes[i]) == null) throw new AssertionError("missing " + codes[i]);
+                    }
+                }
+                synchronized (bytes) {
+                    bytes[0] += allocatedBytes() - before;
+                }
+            }) * streams[0].length;
+            if (round == 2) {
+                System.out.printf("  %-12s %,12.0f lookups/s %8.1f bytes/op", label, opsPerSec,
+                        (double) bytes[0] / (streams.length * (long) streams[0].length));
+            }
+        }
+    }
+
+    static void run(int n, int threads) throws Exception {
+        Path dir = Paths.get("urls-zipf");
+        LinkStoreBenchmark.deleteTree(dir);
+        int cacheSize = Integer.getInteger("cache", Math.max(1024, n / 100));
+        URLShortener cached = new URLShortener(dir, cacheSize);
+        String[] codes = new String[n];
+        for (int i = 0; i < n; i++) codes[i] = cached.shorten(LinkStoreBenchmark.url(i));
+        cached.store.flush();
+        int[][] streams = new int[threads][];
+        for (int t = 0; t < threads; t++) streams[t] = zipfSample(n, 2_000_000, 0.99, 42 + t);
+        System.out.printf("%d urls, cache %d entries, %d threads x %d Zipf(0.99) lookups%n",
+                n, cacheSize, threads, streams[0].length);
+
+        LinkStore store = cached.store;
+        measure("decode only", code -> cached.idOf(code) > 0 ? "" : null, codes, streams);
+        System.out.println("  (harness floor)");
+        measure("no cache", code -> {
+            try {
+                return store.get(cached.idOf(code));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, codes, streams);
+        System.out.println();
+
+        Map<Long, String> lru = Collections.synchronizedMap(new LinkedHashMap<Long, String>(cacheSize * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                return size() > cacheSize;
+            }
+        });
+        long[] lruHits = new long[2];
+        measure("LRU", code -> {
+            long id = cached.idOf(code);
+            String url = lru.get(id);
+            if (url != null) {
+                lruHits[0]++;
+                return url;
+            }
+            lruHits[1]++;
+            try {
+                url = store.get(id);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            lru.put(id, url);
+            return url;
+        }, codes, streams);
+        System.out.printf("  hit ratio %.3f (approx: unsynchronized counters)%n", (double) lruHits[0] / (lruHits[0] + lruHits[1]));
+
+        measure("W-TinyLFU", cached::retrieve, codes, streams);
+        System.out.printf("  hit ratio %.3f%n", (double) cached.cache.hits() / (cached.cache.hits() + cached.cache.misses()));
+        cached.close();
+        LinkStoreBenchmark.deleteTree(dir);
+    }
+}
+
+/* ------------------------ ImportBenchmark ------------------------ */
+// File-to-file import of a generated URL list, with throughput and peak heap, then a
+// shortenAll / retrieveAll check: java [-Xmx...] URLShortener import [urls]
+class ImportBenchmark {
+    static long peakHeapBytes() {
+        long peak = 0;  // sum of per-pool peaks: an upper bound on the heap in use at any moment
+        for (java.lang.management.MemoryPoolMXBean pool : java.lang.management.ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == java.lang.management.MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    static void run(int n) throws Exception {
+        Path dir = Paths.get("urls-import"), in = Paths.get("urls-import.txt"), out = Paths.get("urls-import.out");
+        LinkStoreBenchmark.deleteTree(dir);
+        try (BufferedWriter w = Files.newBufferedWriter(in, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < n; i++) {
+                w.write(LinkStoreBenchmark.url(i % (n - n / 20)));  // the last 5% repeat earlier URLs
+                w.newLine();
+            }
+        }
+        System.gc();
+        for (java.lang.management.MemoryPoolMXBean pool : java.lang.management.ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long start = System.nanoTime();
+        long count;
+        try (URLShortener s = new URLShortener(dir)) {
+            count = s.importFile(in, out);
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("imported %,d urls (%.0f MB in) in %.1fs: %,.0f urls/s, peak heap %d MB (max %d MB)%n",
+                count, Files.size(in) / 1e6, secs, count / secs, peakHeapBytes() >> 20,
+                Runtime.getRuntime().maxMemory() >> 20);
+
+        try (URLShortener s = new URLShortener(dir);
+             Stream<String> lines = Files.lines(out, StandardCharsets.UTF_8)) {
+            List<String> sample = new ArrayList<>();
+            lines.limit(100_000).forEach(sample::add);
+            List<String> urls = new ArrayList<>(), codes = new ArrayList<>();
+            for (String line : sample) {
+                int tab = line.indexOf('\t');
+                codes.add(line.substring(0, tab));
+                urls.add(line.substring(tab + 1));
+            }
+            List<String> again = s.shortenAll(urls.stream()).collect(java.util.stream.Collectors.toList());
+            List<String> resolved = s.retrieveAll(codes.stream()).collect(java.util.stream.Collectors.toList());
+            if (!again.equals(codes) || !resolved.equals(urls)) throw new AssertionError("bulk round trip mismatch");
+            System.out.printf("shortenAll / retrieveAll round trip OK on %d lines, store holds %,d mappings%n",
+                    sample.size(), s.store.size());
+        }
+        Files.delete(in);
+        Files.delete(out);
+        LinkStoreBenchmark.deleteTree(dir);
+    }
+}
+
+/* ------------------------ AllocatorBenchmark ------------------------ */
+// Shared counter vs leased ranges at 1..16 threads with a uniqueness check, plus a round-trip
+// check of the code scramble: java URLShortener alloc [idsPerThread]
+class AllocatorBenchmark {
+    static void run(int perThread) throws Exception {
+        for (int threads : new int[]{1, 4, 16}) {
+            int n = perThread * threads;
+            long[] seen = new long[n];
+            AtomicLong shared = new AtomicLong(1);
+            double sharedRate = LinkStoreBenchmark.parallel(n, threads, (from, to) -> {
+                for (int i = from; i < to; i++) seen[i] = shared.getAndIncrement();
+            });
+            IdAllocator leased = new IdAllocator(1, LinkStore.ID_MASK);
+            double leasedRate = LinkStoreBenchmark.parallel(n, threads, (from, to) -> {
+                for (int i = from; i < to; i++) seen[i] = leased.next();
+            });
+            Arrays.sort(seen);
+            for (int i = 1; i < n; i++) {
+                if (seen[i] == seen[i - 1]) throw new AssertionError("duplicate id " + seen[i]);
+            }
+            System.out.printf("%2d threads: AtomicLong %,14.0f ids/s   leased %,14.0f ids/s   (%d unique)%n",
+                    threads, sharedRate, leasedRate, n);  // seen[] holds the leased run
+        }
+        CodeScrambler scrambler = new CodeScrambler(new long[]{1, 2, 3, 4});
+        for (long id = 1; id <= 1 << 24; id++) {  // round trip => injective, so no two ids share a code
+            long code = scrambler.scramble(id);
+            if (scrambler.unscramble(code) != id || code > (1L << 40) - 1) throw new AssertionError("scramble broke " + id);
+        }
+        System.out.println("scramble: 2^24 ids round-trip, codes below 2^40 (<= 7 base62 chars)");
+    }
+}
+
+/* ------------------------ LinkStoreBenchmark ------------------------ */
+// Write / read throughput, restart time and crash recovery of the store:
+// java URLShortener bench [urls] [threads]
+class LinkStoreBenchmark {
+    static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+        }
+    }
+
+    static String url(int i) {
+        return "https://example.com/articles/" + i + "/view?utm_source=bench&ref=" + (i * 2654435761L >>> 16);
+    }
+
+    interface Work {
+        void run(int from, int to) throws Exception;
+    }
+
+    static double parallel(int n, int threads, Work work) throws Exception {
+        Thread[] ts = new Thread[threads];
+        Exception[] failure = new Exception[1];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int from = (int) ((long) n * t / threads), to = (int) ((long) n * (t + 1) / threads);
+            ts[t] = new Thread(() -> {
+                try {
+                    work.run(from, to);
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            });
+            ts[t].start();
+        }
+        for (Thread t : ts) t.join();
+        if (failure[0] != null) throw failure[0];
+        return n / ((System.nanoTime() - start) / 1e9);
+    }
+
+    static void verify(URLShortener s, String[] codes, int from, int to, int samples) {
+        for (int k = 0; k < samples; k++) {
+            int i = from + ThreadLocalRandom.current().nextInt(to - from);
+            if (!url(i).equals(s.retrieve(codes[i]))) throw new AssertionError("lost mapping " + codes[i]);
+        }
+    }
+
+    static void run(int n, int threads) throws Exception {
+        Path dir = Paths.get("urls-bench");
+        deleteTree(dir);
+        String[] codes = new String[n + n / 10];
+
+        URLShortener s = new URLShortener(dir);
+        double writes = parallel(n, threads, (from, to) -> {
+            for (int i = from; i < to; i++) codes[i] = s.shorten(url(i));
+        });
+        double dedup = parallel(n, threads, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                if (!s.shorten(url(i)).equals(codes[i])) throw new AssertionError("dedup miss for " + i);
+            }
+        });
+        double reads = parallel(n, threads, (from, to) -> {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            for (int i = from; i < to; i++) {
+                if (s.retrieve(codes[rnd.nextInt(n)]) == null) throw new AssertionError("missing code");
+            }
+        });
+        System.out.printf("%d urls, %d threads%n", n, threads);
+        System.out.printf("  shorten (new)    %,12.0f ops/s%n", writes);
+        System.out.printf("  shorten (dedup)  %,12.0f ops/s%n", dedup);
+        System.out.printf("  retrieve         %,12.0f ops/s%n", reads);
+        s.close();
+
+        long start = System.nanoTime();
+        URLShortener reopened = new URLShortener(dir);
+        System.out.printf("  clean restart    %8.1f ms, replayed %d records%n",
+                (System.nanoTime() - start) / 1e6, reopened.store.recoveredRecords);
+        verify(reopened, codes, 0, n, 100_000);
+
+        // Crash: shorten has handed every record to the OS but no checkpoint is taken, then a
+        // torn record lands on one log.
+        int extra = n / 10;
+        parallel(extra, threads, (from, to) -> {
+            for (int i = n + from; i < n + to; i++) codes[i] = reopened.shorten(url(i));
+        });
+        try (FileChannel log = FileChannel.open(dir.resolve("shard-3.log"), StandardOpenOption.WRITE)) {
+            ByteBuffer torn = ByteBuffer.allocate(20).putInt(100).putInt(0).putLong(3).putInt(7);
+            torn.flip();
+            log.write(torn, log.size());
+        }
+        start = System.nanoTime();
+        URLShortener recovered = new URLShortener(dir);
+        System.out.printf("  crash restart    %8.1f ms, replayed %d records, truncated %d bytes%n",
+                (System.nanoTime() - start) / 1e6, recovered.store.recoveredRecords, recovered.store.truncatedBytes);
+        verify(recovered, codes, n, n + extra, extra);
+        verify(recovered, codes, 0, n, 100_000);
+        if (!recovered.shorten(url(n + extra - 1)).equals(codes[n + extra - 1])) throw new AssertionError("dedup lost");
+        long fresh = recovered.idOf(recovered.shorten(url(n + extra)));
+        for (String code : codes) {
+            if (recovered.idOf(code) >= fresh) throw new AssertionError("id " + fresh + " reissued after the crash");
+        }
+        System.out.println("  recovery check OK, " + recovered.store.size() + " mappings");
+        recovered.close();
+        deleteTree(dir);
+
+        // Lost reverse tables are rebuilt from the logs. Stripes sized for 16 mappings have to
+        // grow during the rebuild, which reads records back from every shard.
+        Path small = Paths.get("urls-bench-rebuild");
+        deleteTree(small);
+        int rebuild = 40_000;
+        long[] ids = new long[rebuild];
+        try (LinkStore store = new LinkStore(small, 16)) {
+            for (int i = 0; i < rebuild; i++) ids[i] = store.put(url(i));
+        }
+        for (int k = 0; k < LinkStore.STRIPES; k++) Files.delete(small.resolve("reverse-" + k + ".idx"));
+        start = System.nanoTime();
+        try (LinkStore store = new LinkStore(small, 16)) {
+            double ms = (System.nanoTime() - start) / 1e6;
+            for (int i = 0; i < rebuild; i++) {
+                if (store.put(url(i)) != ids[i]) throw new AssertionError("dedup lost in the reverse rebuild for " + i);
+            }
+            if (store.size() != rebuild) throw new AssertionError("reverse rebuild stored duplicates");
+            System.out.printf("  reverse rebuild  %8.1f ms, %d records into grown stripes, dedup OK%n", ms, rebuild);
+        }
+        // A key file cut short is refused rather than read as the identity scramble.
+        Path key = small.resolve("codes.key");
+        CodeScrambler.open(key, false);
+        Files.write(key, Arrays.copyOf(Files.readAllBytes(key), 16));
+        try {
+            CodeScrambler.open(key, false);
+            throw new AssertionError("truncated codes.key accepted");
+        } catch (IOException expected) {
+            System.out.println("  key file check   truncated codes.key refused");
+        }
+        deleteTree(small);
     }
 }
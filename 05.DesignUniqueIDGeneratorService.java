@@ -11,52 +11,536 @@
 /*    Github :  https://github.com/Manu577228                  */
 /* ----------------------------------------------------------- */
 
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
 
+// Lock-free Snowflake: the last issued (timestamp, sequence) pair is packed into one atomic long
+// and a caller claims the next pair with a single CAS.
+// With stripeBits > 0 the top stripeBits of the sequence field name a stripe with its own
+// state; each thread has a home stripe, so threads on different stripes never touch the same
+// word. A thread that uses up its stripe within a millisecond borrows the next higher stripes
+// for that same millisecond, so a few busy threads still get the full sequence per millisecond.
+// nextIds claims a whole run of consecutive IDs with the same single CAS.
 class UniqueIDGenerator {
+    private static final int PAD = 8; // longs per stripe state: one cache line each
+
+    // How the 63 usable bits are split: timestamp | machine | sequence, with the timestamp counted
+    // in milliseconds from epochMillis. Hot nodes can give machine bits to the sequence, e.g.
+    // 6 machine bits and 16 sequence bits allow 64 nodes at 65536 IDs/ms each.
+    static final class Layout {
+        static final Layout DEFAULT = new Layout(10, 12, 0); // classic Snowflake on the Unix epoch
+
+        final int machineBits;
+        final int sequenceBits;
+        final int timestampBits;
+        final long epochMillis;
+        final long maxTimestamp;
+        private final int timestampShift;
+        private final long machineMask;
+        private final long sequenceMask;
+
+        Layout(int machineBits, int sequenceBits, long epochMillis) {
+            if (machineBits < 0 || sequenceBits < 1 || sequenceBits > 22) {
+                throw new IllegalArgumentException("need machineBits >= 0 and sequenceBits in 1..22");
+            }
+            this.timestampBits = 63 - machineBits - sequenceBits;
+            if (timestampBits < 32) throw new IllegalArgumentException("the timestamp needs at least 32 bits");
+            this.machineBits = machineBits;
+            this.sequenceBits = sequenceBits;
+            this.epochMillis = epochMillis;
+            this.maxTimestamp = (1L << timestampBits) - 1;
+            this.timestampShift = machineBits + sequenceBits;
+            this.machineMask = (1L << machineBits) - 1;
+            this.sequenceMask = (1L << sequenceBits) - 1;
+        }
+
+        long compose(long timestamp, long machineId, long sequence) {
+            return (timestamp << timestampShift) | (machineId << sequenceBits) | sequence;
+        }
+
+        // Decoders: plain shifts and masks, nothing allocated.
+        long timestampOf(long id) {
+            return (id >>> timestampShift) + epochMillis; // Unix millis
+        }
+
+        long machineOf(long id) {
+            return (id >>> sequenceBits) & machineMask;
+        }
+
+        long sequenceOf(long id) {
+            return id & sequenceMask; // includes the stripe bits of a striped generator
+        }
+
+        public String toString() {
+            return String.format("%d timestamp bits (%d years from %s), %d machine bits, %d sequence bits",
+                    timestampBits, maxTimestamp / 31_557_600_000L, java.time.Instant.ofEpochMilli(epochMillis),
+                    machineBits, sequenceBits);
+        }
+    }
+
+    // What to do when the wall clock is found behind the last issued timestamp.
+    enum SkewPolicy {
+        WAIT,    // spin until the clock catches up again
+        LOGICAL, // keep issuing from the last timestamp, stepping it forward when the sequence runs out
+        FAIL     // throw IllegalStateException
+    }
+
+    private final Layout layout;
     private final long machineId;
-    private long sequence = 0L;
-    private long lastTimestamp = -1L;
-    private final ReentrantLock lock = new ReentrantLock();
+    private final int stripeBits;
+    private final int seqBits;        // sequence bits per stripe
+    private final long seqMask;
+    private final SkewPolicy skewPolicy;
+    private final LongSupplier clock;
+    private final AtomicLongArray states; // lastTimestamp << seqBits | sequence, per stripe
+    private final AtomicInteger nextStripe = new AtomicInteger();
+    private final ThreadLocal<Integer> stripe;
+
+    private final LongAdder exhaustions = new LongAdder();  // whole sequence used up in a millisecond
+    private final LongAdder stripeBorrows = new LongAdder(); // moves to a higher stripe
+    private final LongAdder waitSpins = new LongAdder();
+    private final LongAdder clockRegressions = new LongAdder();
 
     public UniqueIDGenerator(long machineId) {
-        this.machineId = machineId & 0x3FF; // 10 bits for machine ID
+        this(machineId, 0);
+    }
+
+    public UniqueIDGenerator(long machineId, int stripeBits) {
+        this(machineId, stripeBits, SkewPolicy.LOGICAL);
+    }
+
+    public UniqueIDGenerator(long machineId, int stripeBits, SkewPolicy skewPolicy) {
+        this(Layout.DEFAULT, machineId, stripeBits, skewPolicy);
+    }
+
+    public UniqueIDGenerator(Layout layout, long machineId, int stripeBits, SkewPolicy skewPolicy) {
+        this(layout, machineId, stripeBits, skewPolicy, System::currentTimeMillis);
+    }
+
+    UniqueIDGenerator(Layout layout, long machineId, int stripeBits, SkewPolicy skewPolicy, LongSupplier clock) {
+        if (machineId < 0 || machineId >= 1L << layout.machineBits) {
+            throw new IllegalArgumentException("machineId must fit in " + layout.machineBits + " bits");
+        }
+        if (stripeBits < 0 || stripeBits > Math.min(8, layout.sequenceBits - 1)) {
+            throw new IllegalArgumentException("stripeBits must be in 0.." + Math.min(8, layout.sequenceBits - 1));
+        }
+        this.layout = layout;
+        this.machineId = machineId;
+        this.stripeBits = stripeBits;
+        this.seqBits = layout.sequenceBits - stripeBits;
+        this.seqMask = (1L << seqBits) - 1;
+        this.skewPolicy = skewPolicy;
+        this.clock = clock;
+        this.states = new AtomicLongArray(PAD << stripeBits);
+        for (int s = 0; s < 1 << stripeBits; s++) states.set(s * PAD, -1L << seqBits); // lastTimestamp = -1
+        int stripeMask = (1 << stripeBits) - 1;
+        this.stripe = ThreadLocal.withInitial(() -> nextStripe.getAndIncrement() & stripeMask);
     }
 
+    Layout layout() {
+        return layout;
+    }
+
+    // Milliseconds since the layout's epoch.
     private long currentMillis() {
-        return System.currentTimeMillis();
+        long ts = clock.getAsLong() - layout.epochMillis;
+        if ((ts & ~layout.maxTimestamp) != 0) {
+            throw new IllegalStateException("clock " + (ts + layout.epochMillis) + " is outside the " + layout.timestampBits
+                    + "-bit timestamp range from epoch " + layout.epochMillis);
+        }
+        return ts;
     }
 
     private long waitNextMillis(long lastTs) {
         long ts = currentMillis();
+        long spins = 0;
         while (ts <= lastTs) {
+            Thread.onSpinWait();
+            spins++;
             ts = currentMillis();
         }
+        if (spins > 0) waitSpins.add(spins);
         return ts;
     }
 
     public long getId() {
-        lock.lock();
-        try {
+        return claim(1, false);
+    }
+
+    // Reserves n consecutive IDs in one step and returns the first; the batch is first .. first + n - 1.
+    // n may be at most the per-stripe sequence size (2^sequenceBits >> stripeBits).
+    public long nextIds(int n) {
+        if (n < 1 || n > seqMask + 1) throw new IllegalArgumentException("n must be in 1.." + (seqMask + 1));
+        return claim(n, false);
+    }
+
+    // Fills out[off .. off + len) with increasing IDs, taking whatever is left of the current
+    // millisecond as one consecutive run per CAS.
+    public void nextIds(long[] out, int off, int len) {
+        while (len > 0) {
+            int want = (int) Math.min(len, seqMask + 1);
+            long first = claim(want, true);
+            int got = (int) Math.min(want, seqMask + 1 - (first & seqMask));
+            for (int i = 0; i < got; i++) out[off + i] = first + i;
+            off += got;
+            len -= got;
+        }
+    }
+
+    public long getSequenceExhaustions() {
+        return exhaustions.sum();
+    }
+
+    // Times a thread ran out of one stripe and moved up to the next; not exhaustions.
+    public long getStripeBorrows() {
+        return stripeBorrows.sum();
+    }
+
+    public long getWaitSpins() {
+        return waitSpins.sum();
+    }
+
+    // Calls that found the clock behind the last issued timestamp.
+    public long getClockRegressions() {
+        return clockRegressions.sum();
+    }
+
+    // Claims n sequence numbers in one millisecond of one stripe (with partial, as many as are
+    // left, at least one) and returns the ID of the first.
+    private long claim(int n, boolean partial) {
+        int home = stripeBits == 0 ? 0 : stripe.get();
+        int s = home;
+        long pinned = Long.MIN_VALUE; // the millisecond we borrow higher stripes for
+        while (true) {
+            int slot = s * PAD;
+            long prev = states.get(slot);
+            long lastTs = prev >> seqBits;
             long ts = currentMillis();
-            if (ts == lastTimestamp) {
-                sequence = (sequence + 1) & 0xFFF; // 12-bit sequence
-                if (sequence == 0) {
-                    ts = waitNextMillis(lastTimestamp);
+            boolean behind = false;
+            if (s != home) {
+                // Only the pinned millisecond may be borrowed: anything else could go below
+                // an ID this thread already got from a higher stripe.
+                if (ts != pinned || lastTs > pinned) {
+                    s = home;
+                    continue;
+                }
+                ts = pinned;
+            } else if (ts < lastTs) {
+                clockRegressions.increment();
+                if (skewPolicy == SkewPolicy.FAIL) {
+                    throw new IllegalStateException("clock moved backwards by " + (lastTs - ts) + " ms");
+                }
+                if (skewPolicy == SkewPolicy.WAIT) {
+                    waitNextMillis(lastTs - 1);
+                    continue;
+                }
+                ts = lastTs;
+                behind = true;
+            }
+            long first, last;
+            long left = ts > lastTs ? seqMask + 1 : seqMask - (prev & seqMask);
+            if (left >= n || partial && left > 0) {
+                first = ts > lastTs ? ts << seqBits : prev + 1;
+                last = first + Math.min(n, left) - 1;
+            } else if (behind) {
+                exhaustions.increment();
+                first = (lastTs + 1) << seqBits; // logical clock: step ahead instead of waiting
+                last = first + n - 1;
+            } else if (s + 1 < 1 << stripeBits) {
+                // Not enough left in this stripe: close it for this millisecond so this thread can
+                // never come back to it below what the higher stripe gives, then move up one.
+                if (!states.compareAndSet(slot, prev, prev | seqMask)) continue;
+                stripeBorrows.increment();
+                pinned = lastTs;
+                s++;
+                continue;
+            } else {
+                exhaustions.increment();
+                waitNextMillis(lastTs); // whole sequence used up for this millisecond
+                s = home;
+                continue;
+            }
+            if (states.compareAndSet(slot, prev, last)) {
+                return layout.compose(first >> seqBits, machineId, ((long) s << seqBits) | (first & seqMask));
+            }
+        }
+    }
+}
+
+// IDs/sec from 1 to 64 threads for the old locking generator, the CAS generator and the
+// striped CAS generator, checking that every ID is unique and each thread's IDs increase:
+// java IDGeneratorDemo bench [idsPerRun]
+class IDGeneratorBenchmark {
+    // The generator before the CAS rewrite, kept as the baseline.
+    static class LockingIDGenerator {
+        private final long machineId;
+        private long sequence = 0L;
+        private long lastTimestamp = -1L;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        LockingIDGenerator(long machineId) {
+            this.machineId = machineId & 0x3FF;
+        }
+
+        long getId() {
+            lock.lock();
+            try {
+                long ts = System.currentTimeMillis();
+                if (ts == lastTimestamp) {
+                    sequence = (sequence + 1) & 0xFFF;
+                    if (sequence == 0) {
+                        while (ts <= lastTimestamp) ts = System.currentTimeMillis();
+                    }
+                } else {
+                    sequence = 0;
                 }
+                lastTimestamp = ts;
+                return (ts << 22) | (machineId << 12) | sequence;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    interface Source {
+        long next();
+    }
+
+    // Returns IDs/sec; throws if an ID repeats or a thread sees its IDs go backwards.
+    static double run(Source source, int threads, int total) throws InterruptedException {
+        int perThread = total / threads;
+        long[][] ids = new long[threads][perThread];
+        boolean[] ordered = new boolean[threads];
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            long[] out = ids[t];
+            int tid = t;
+            workers[t] = new Thread(() -> {
+                long last = Long.MIN_VALUE;
+                boolean ok = true;
+                for (int i = 0; i < out.length; i++) {
+                    long id = source.next();
+                    ok &= id > last;
+                    out[i] = last = id;
+                }
+                ordered[tid] = ok;
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers) w.join();
+        double rate = (double) perThread * threads / ((System.nanoTime() - start) / 1e9);
+        long[] all = new long[perThread * threads];
+        for (int t = 0; t < threads; t++) {
+            if (!ordered[t]) throw new AssertionError("IDs went backwards on thread " + t);
+            System.arraycopy(ids[t], 0, all, t * perThread, perThread);
+        }
+        Arrays.sort(all);
+        for (int i = 1; i < all.length; i++) {
+            if (all[i] == all[i - 1]) throw new AssertionError("duplicate ID " + all[i]);
+        }
+        return rate;
+    }
+
+    // 6 machine bits, 16 sequence bits, counted from 2020-01-01.
+    static final UniqueIDGenerator.Layout HOT = new UniqueIDGenerator.Layout(6, 16, 1_577_836_800_000L);
+
+    static void run(int total) throws InterruptedException {
+        System.out.printf("%d IDs per run; the default layout tops out at 4096 IDs/ms, the seq16 one at 65536%n", total);
+        System.out.printf("%8s %16s %16s %16s %16s%n", "threads", "lock", "CAS", "CAS striped(4)", "CAS seq16");
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            for (int warmup = 0; warmup < (threads == 1 ? 2 : 0); warmup++) {
+                run(new LockingIDGenerator(42)::getId, 1, total);
+                run(new UniqueIDGenerator(42)::getId, 1, total);
+                run(new UniqueIDGenerator(42, 4)::getId, 1, total);
+                run(new UniqueIDGenerator(HOT, 42, 0, UniqueIDGenerator.SkewPolicy.LOGICAL)::getId, 1, total);
+            }
+            System.out.printf("%8d %,16.0f %,16.0f %,16.0f %,16.0f%n", threads,
+                    run(new LockingIDGenerator(42)::getId, threads, total),
+                    run(new UniqueIDGenerator(42)::getId, threads, total),
+                    run(new UniqueIDGenerator(42, 4)::getId, threads, total),
+                    run(new UniqueIDGenerator(HOT, 42, 0, UniqueIDGenerator.SkewPolicy.LOGICAL)::getId, threads, total));
+        }
+        long[] batch = new long[total];
+        for (int round = 0; round < 3; round++) {
+            UniqueIDGenerator bulk = new UniqueIDGenerator(42);
+            long start = System.nanoTime();
+            bulk.nextIds(batch, 0, total);
+            double rate = total / ((System.nanoTime() - start) / 1e9);
+            if (round == 2) System.out.printf("%8s %,16.0f  (nextIds(long[]), 1 thread)%n", "bulk", rate);
+        }
+        System.out.println("all runs: IDs unique, per-thread monotonic");
+    }
+}
+
+// Clock-skew policies against a hand-driven clock, plus nextIds batches mixed with getId
+// across threads: java IDGeneratorDemo check
+class IDGeneratorCheck {
+    static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+
+    static void skew(UniqueIDGenerator.SkewPolicy policy) throws InterruptedException {
+        AtomicLong clock = new AtomicLong(1_000);
+        UniqueIDGenerator gen = new UniqueIDGenerator(UniqueIDGenerator.Layout.DEFAULT, 7, 0, policy, clock::get);
+        long before = 0;
+        for (int i = 0; i < 10; i++) before = gen.getId();
+        clock.set(995); // the clock steps back 5 ms
+        long[] after = new long[5_000]; // more than one millisecond's worth of sequence
+        Thread t = new Thread(() -> {
+            try {
+                gen.nextIds(after, 0, after.length);
+            } catch (IllegalStateException e) {
+                after[0] = -1;
+            }
+        });
+        t.start();
+        t.join(100);
+        String outcome;
+        if (policy == UniqueIDGenerator.SkewPolicy.WAIT) {
+            check(t.isAlive(), "WAIT returned while the clock was behind");
+            while (t.isAlive()) {
+                // let the clock run again
+                clock.set(Math.max(clock.get(), 1_000) + 1);
+                t.join(1);
+            }
+            outcome = "waited for the clock";
+        } else {
+            t.join();
+            if (policy == UniqueIDGenerator.SkewPolicy.FAIL) {
+                check(after[0] == -1, "FAIL did not throw");
+                outcome = "threw IllegalStateException";
+            } else {
+                outcome = "ran " + (gen.layout().timestampOf(after[after.length - 1]) - 995) + " ms ahead of the clock";
+            }
+        }
+        if (after[0] != -1) {
+            check(after[0] > before, "IDs went backwards after the clock did");
+            for (int i = 1; i < after.length; i++) check(after[i] > after[i - 1], "batch not increasing");
+        }
+        System.out.printf("%-8s %-30s exhaustions %d, wait spins %d, clock regressions %d%n", policy, outcome,
+                gen.getSequenceExhaustions(), gen.getWaitSpins(), gen.getClockRegressions());
+    }
+
+    // Eight threads draw IDs from a clock slowed down tenfold, so every "millisecond" runs out of
+    // sequence many times. Decoding the sorted IDs must show each millisecond using distinct
+    // sequence numbers below 2^sequenceBits: the sequence never wraps back inside a millisecond.
+    static void noWrap(UniqueIDGenerator.Layout layout, int stripeBits) throws InterruptedException {
+        long base = System.currentTimeMillis(), t0 = System.nanoTime();
+        LongSupplier slowClock = () -> base + (System.nanoTime() - t0) / 10_000_000;
+        UniqueIDGenerator gen = new UniqueIDGenerator(layout, 21, stripeBits, UniqueIDGenerator.SkewPolicy.WAIT, slowClock);
+        int total = 2_000_000;
+        long[] seen = new long[total];
+        AtomicInteger pos = new AtomicInteger();
+        IDGeneratorBenchmark.run(() -> seen[pos.getAndIncrement()] = gen.getId(), 8, total);
+        long end = slowClock.getAsLong();
+        Arrays.sort(seen);
+        long capacity = 1L << layout.sequenceBits;
+        int millis = 0, run = 0;
+        for (int i = 0; i < total; i++) {
+            long id = seen[i], ts = layout.timestampOf(id), seq = layout.sequenceOf(id);
+            check(layout.machineOf(id) == 21, "machine field");
+            check(ts >= base && ts <= end, "timestamp outside the run");
+            check(seq < capacity, "sequence overflowed its field");
+            if (i > 0 && ts == layout.timestampOf(seen[i - 1])) {
+                check(seq > layout.sequenceOf(seen[i - 1]), "sequence wrapped within a millisecond");
+                check(++run < capacity, "more IDs than the sequence holds in one millisecond");
             } else {
-                sequence = 0;
+                run = 0;
+                millis++;
             }
-            lastTimestamp = ts;
-            return (ts << 22) | (machineId << 12) | sequence;
-        } finally {
-            lock.unlock();
         }
+        System.out.printf("no wrap: %s, stripes %d: %d IDs over %d ms, %d exhaustions, %d stripe borrows%n",
+                layout, 1 << stripeBits, total, millis, gen.getSequenceExhaustions(), gen.getStripeBorrows());
+    }
+
+    // Decoding round-trips every field and allocates nothing.
+    static void decode() {
+        UniqueIDGenerator.Layout layout = IDGeneratorBenchmark.HOT;
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int i = 0; i < 100_000; i++) {
+            long ts = rnd.nextLong(layout.maxTimestamp + 1), m = rnd.nextLong(64), seq = rnd.nextLong(1 << 16);
+            long id = layout.compose(ts, m, seq);
+            check(id >= 0 && layout.timestampOf(id) == ts + layout.epochMillis
+                    && layout.machineOf(id) == m && layout.sequenceOf(id) == seq, "decode round trip");
+        }
+        UniqueIDGenerator gen = new UniqueIDGenerator(layout, 5, 0, UniqueIDGenerator.SkewPolicy.LOGICAL);
+        long[] ids = new long[1 << 16];
+        gen.nextIds(ids, 0, ids.length);
+        long sink = 0;
+        for (int warmup = 0; warmup < 20; warmup++) sink += decodeAll(layout, ids);
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long before = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int round = 0; round < 100; round++) sink += decodeAll(layout, ids);
+        long bytes = mx.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        check(bytes == 0, "decoding allocated " + bytes + " bytes");
+        System.out.printf("decode: round trip OK, %d IDs decoded with 0 bytes allocated (%d)%n", 100L * ids.length, sink & 1);
+    }
+
+    static long decodeAll(UniqueIDGenerator.Layout layout, long[] ids) {
+        long sum = 0;
+        for (long id : ids) sum += layout.timestampOf(id) ^ layout.machineOf(id) ^ layout.sequenceOf(id);
+        return sum;
+    }
+
+    static void run() throws InterruptedException {
+        for (UniqueIDGenerator.SkewPolicy policy : UniqueIDGenerator.SkewPolicy.values()) skew(policy);
+
+        UniqueIDGenerator gen = new UniqueIDGenerator(42);
+        long first = gen.nextIds(1_000);
+        check(gen.getId() > first + 999, "getId inside a reserved batch");
+
+        // Threads alternate single IDs and batches of random size; run() checks that all IDs are
+        // unique and that each thread's IDs keep increasing.
+        for (int stripeBits : new int[]{0, 2}) {
+            UniqueIDGenerator mixed = new UniqueIDGenerator(42, stripeBits);
+            int max = 4096 >> stripeBits;
+            ThreadLocal<long[]> buffer = ThreadLocal.withInitial(() -> new long[max + 2]); // ids, then [pos, end]
+            IDGeneratorBenchmark.run(() -> {
+                long[] b = buffer.get();
+                if (b[max] == b[max + 1]) {
+                    int n = ThreadLocalRandom.current().nextInt(max) + 1;
+                    if (n < 4) {
+                        return mixed.getId();
+                    }
+                    long start = mixed.nextIds(n);
+                    for (int i = 0; i < n; i++) b[i] = start + i;
+                    b[max] = 0;
+                    b[max + 1] = n;
+                }
+                return b[(int) b[max]++];
+            }, 8, 4_000_000);
+            System.out.printf("stripeBits %d: getId and nextIds(1..%d) over 8 threads unique and monotonic "
+                    + "(%d exhaustions, %d stripe borrows)%n", stripeBits, max, mixed.getSequenceExhaustions(),
+                    mixed.getStripeBorrows());
+        }
+
+        for (UniqueIDGenerator.Layout layout : new UniqueIDGenerator.Layout[]{UniqueIDGenerator.Layout.DEFAULT,
+                IDGeneratorBenchmark.HOT, new UniqueIDGenerator.Layout(14, 8, IDGeneratorBenchmark.HOT.epochMillis)}) {
+            for (int stripeBits : new int[]{0, 2}) noWrap(layout, stripeBits);
+        }
+        decode();
+        System.out.println("all checks passed");
     }
 }
 
 public class IDGeneratorDemo {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 0 && args[0].equals("bench")) {
+            IDGeneratorBenchmark.run(args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("check")) {
+            IDGeneratorCheck.run();
+            return;
+        }
         UniqueIDGenerator generator = new UniqueIDGenerator(42);
         System.out.println("Generating 5 unique IDs:");
         for (int i = 0; i < 5; i++) {
@@ -65,4 +549,3 @@ public class IDGeneratorDemo {
         }
     }
 }
-
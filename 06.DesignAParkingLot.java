@@ -13,9 +13,9 @@ UML (simplified):
 +----------------+                         +---------------+
 | - levels:[]    |                         | - levelId     |
 | - ticketMap    |                         | - slots:[]    |
-| - plateMap     |                         +---------------+
-| - lock         |                                  |
-+----------------+                                  |
+| - plateMap     |                         | - lock        |
++----------------+                         +---------------+
+       |                                           |
        | 1                                           | 1..*
        |                                             v
        |                                       +---------------+
@@ -39,9 +39,17 @@ UML (simplified):
 Vehicle (data structure): {plate, vtype}
 */
 
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.concurrent.locks.*;
 import java.time.*;
+import java.util.zip.*;
 
 public class ParkingLotDemo {
 
@@ -52,6 +60,8 @@ public class ParkingLotDemo {
         VehicleType(int s) { this.minSlot = s; }
     }
 
+    static final int MAX_SLOT_SIZE = 3; // slot sizes run 1..MAX_SLOT_SIZE
+
     /* --------------------------- VEHICLE ----------------------------- */
     static class Vehicle {
         String plate;
@@ -72,6 +82,8 @@ public class ParkingLotDemo {
         String slotId;
         int size;
         int levelId;
+        int index;       // position in its level's slots
+        int levelIndex;  // position of its level in the lot
         Vehicle occupiedBy;
 
         ParkingSlot(String slotId, int size, int levelId) {
@@ -99,10 +111,45 @@ public class ParkingLotDemo {
     static class Level {
         int levelId;
         List<ParkingSlot> slots = new ArrayList<>();
+        // Free slot indices per slot size, kept as stacks so taking or freeing a slot is O(1).
+        int[][] freeBySize = new int[MAX_SLOT_SIZE + 1][];
+        int[] freeCount = new int[MAX_SLOT_SIZE + 1];
+        volatile int free; // written under lock, read by status() without it
+        ReentrantLock lock = new ReentrantLock(); // guards slot occupancy and the free stacks
 
         Level(int levelId, List<ParkingSlot> slots) {
             this.levelId = levelId;
             this.slots = slots;
+            int[] perSize = new int[MAX_SLOT_SIZE + 1];
+            for (ParkingSlot s : slots) {
+                if (s.size < 1 || s.size > MAX_SLOT_SIZE) {
+                    throw new IllegalArgumentException("slot " + s.slotId + " has size " + s.size);
+                }
+                perSize[s.size]++;
+            }
+            for (int size = 1; size <= MAX_SLOT_SIZE; size++) freeBySize[size] = new int[perSize[size]];
+            rebuildFreeStacks();
+        }
+
+        // Refills the free stacks from the slots' occupiedBy, e.g. after recovery marked slots taken.
+        void rebuildFreeStacks() {
+            Arrays.fill(freeCount, 0);
+            free = 0;
+            for (int i = slots.size() - 1; i >= 0; i--) { // pushed in reverse: lowest index comes out first
+                ParkingSlot s = slots.get(i);
+                s.index = i;
+                if (s.isFree()) release(s);
+            }
+        }
+
+        ParkingSlot take(int size) {
+            free--;
+            return slots.get(freeBySize[size][--freeCount[size]]);
+        }
+
+        void release(ParkingSlot s) {
+            freeBySize[s.size][freeCount[s.size]++] = s.index;
+            free++;
         }
     }
 
@@ -112,6 +159,7 @@ public class ParkingLotDemo {
         String plate;
         String slotId;
         long parkedAt;
+        long parkSeq; // journal sequence of its PARK event; set before the ticket is published
 
         Ticket(String ticketId, String plate, String slotId, long parkedAt) {
             this.ticketId = ticketId;
@@ -127,13 +175,69 @@ public class ParkingLotDemo {
 
     /* --------------------------- PARKING LOT ----------------------------- */
     static class ParkingLot {
+        static final String PARKING = ""; // plateMap value while a gate is still parking that plate
+        static final Ticket RESERVED = new Ticket("", "", "", 0); // ticketMap value until its PARK is queued
+
         List<Level> levels = new ArrayList<>();
-        Map<String, Ticket> ticketMap = new HashMap<>();
-        Map<String, String> plateMap = new HashMap<>();
-        ReentrantLock lock = new ReentrantLock();
+        Map<String, Ticket> ticketMap = new ConcurrentHashMap<>();
+        Map<String, String> plateMap = new ConcurrentHashMap<>();
+        Map<String, ParkingSlot> slotsById = new HashMap<>();
+        // Bit i of levelsWithFree[size] is set while levels.get(i) has a free slot of that size.
+        // Bits change only under that level's lock; readers use them as lock-free hints.
+        AtomicLongArray[] levelsWithFree = new AtomicLongArray[MAX_SLOT_SIZE + 1];
+        int totalSlots;
+        AtomicInteger freeSlots = new AtomicInteger();
+        TicketJournal journal; // null: tickets live in memory only
 
         ParkingLot(List<Level> levels) {
             this.levels = levels;
+            for (int size = 1; size <= MAX_SLOT_SIZE; size++) {
+                levelsWithFree[size] = new AtomicLongArray((levels.size() + 63) >>> 6);
+            }
+            for (int li = 0; li < levels.size(); li++) {
+                Level lvl = levels.get(li);
+                for (ParkingSlot s : lvl.slots) {
+                    s.levelIndex = li;
+                    slotsById.put(s.slotId, s);
+                }
+                totalSlots += lvl.slots.size();
+            }
+            rebuildIndex();
+        }
+
+        // A lot whose tickets survive restarts: recovers the journal in dir, parks every live
+        // ticket back into its slot and journals all further parks and leaves.
+        static ParkingLot open(List<Level> levels, Path dir, long snapshotEvery) throws IOException {
+            TicketJournal journal = new TicketJournal(dir, snapshotEvery);
+            ParkingLot pl = new ParkingLot(levels);
+            for (TicketJournal.Event e : journal.liveTickets()) {
+                ParkingSlot s = pl.slotsById.get(e.slotId);
+                if (s == null || !s.isFree()) throw new IOException("journal puts " + e.plate + " in slot " + e.slotId);
+                s.occupiedBy = new Vehicle(e.plate, e.type);
+                pl.ticketMap.put(e.ticketId, new Ticket(e.ticketId, e.plate, e.slotId, e.time));
+                pl.plateMap.put(e.plate, e.ticketId);
+            }
+            for (Level lvl : levels) lvl.rebuildFreeStacks();
+            pl.rebuildIndex();
+            pl.journal = journal;
+            return pl;
+        }
+
+        private void rebuildIndex() {
+            int free = 0;
+            for (int li = 0; li < levels.size(); li++) {
+                Level lvl = levels.get(li);
+                for (int size = 1; size <= MAX_SLOT_SIZE; size++) {
+                    if (lvl.freeCount[size] > 0) setLevelBit(size, li);
+                    else clearLevelBit(size, li);
+                }
+                free += lvl.free;
+            }
+            freeSlots.set(free);
+        }
+
+        void close() throws IOException {
+            if (journal != null) journal.close();
         }
 
         static ParkingLot createDemoLot(int levelCount, int slotsPerLevel) {
@@ -157,115 +261,1007 @@ public class ParkingLotDemo {
             return UUID.randomUUID().toString().substring(0, 8);
         }
 
-        Ticket parkVehicle(Vehicle v) {
-            lock.lock();
-            try {
-                if (plateMap.containsKey(v.plate)) {
-                    return ticketMap.get(plateMap.get(v.plate));
+        private void setLevelBit(int size, int li) {
+            levelsWithFree[size].accumulateAndGet(li >>> 6, 1L << li, (a, b) -> a | b);
+        }
+
+        private void clearLevelBit(int size, int li) {
+            levelsWithFree[size].accumulateAndGet(li >>> 6, ~(1L << li), (a, b) -> a & b);
+        }
+
+        // Lowest level at or after from that may have a free slot of size minSlot or larger, or -1.
+        private int nextLevel(int minSlot, int from) {
+            int best = -1;
+            for (int size = minSlot; size <= MAX_SLOT_SIZE; size++) {
+                AtomicLongArray bits = levelsWithFree[size];
+                for (int w = from >>> 6; w < bits.length(); w++) {
+                    long word = bits.get(w) & (w == from >>> 6 ? -1L << from : -1L);
+                    if (word != 0) {
+                        int li = (w << 6) + Long.numberOfTrailingZeros(word);
+                        if (best < 0 || li < best) best = li;
+                        break;
+                    }
                 }
-                for (Level lvl : levels) {
-                    for (ParkingSlot s : lvl.slots) {
-                        if (s.fits(v)) {
-                            s.occupiedBy = v;
-                            String tid = generateTicketId();
-                            Ticket t = new Ticket(tid, v.plate, s.slotId, System.currentTimeMillis());
-                            ticketMap.put(tid, t);
-                            plateMap.put(v.plate, tid);
-                            return t;
+            }
+            return best;
+        }
+
+        // Under lvl.lock: the smallest free slot on this level that fits v, now occupied by v.
+        private ParkingSlot takeFrom(int li, Vehicle v) {
+            Level lvl = levels.get(li);
+            for (int size = v.type.minSlot; size <= MAX_SLOT_SIZE; size++) {
+                if (lvl.freeCount[size] > 0) {
+                    ParkingSlot s = lvl.take(size);
+                    if (lvl.freeCount[size] == 0) clearLevelBit(size, li);
+                    s.occupiedBy = v;
+                    freeSlots.decrementAndGet();
+                    return s;
+                }
+            }
+            return null;
+        }
+
+        // Lowest level with a free slot the vehicle fits; on that level the smallest such size.
+        // A level another gate holds is skipped for the next candidate, so concurrent gates
+        // spread over the lowest free levels instead of queueing on one lock.
+        private ParkingSlot takeSlot(Vehicle v) {
+            while (true) {
+                int first = nextLevel(v.type.minSlot, 0);
+                if (first < 0) return null;
+                for (int li = first; li >= 0; li = nextLevel(v.type.minSlot, li + 1)) {
+                    Level lvl = levels.get(li);
+                    if (lvl.lock.tryLock()) {
+                        try {
+                            ParkingSlot s = takeFrom(li, v);
+                            if (s != null) return s;
+                        } finally {
+                            lvl.lock.unlock();
                         }
                     }
                 }
-                return null; // no space
+                Level lvl = levels.get(first); // every candidate was busy: wait for the best one
+                lvl.lock.lock();
+                try {
+                    ParkingSlot s = takeFrom(first, v);
+                    if (s != null) return s;
+                } finally {
+                    lvl.lock.unlock();
+                }
+            }
+        }
+
+        private void releaseSlot(ParkingSlot s) {
+            Level lvl = levels.get(s.levelIndex);
+            lvl.lock.lock();
+            try {
+                s.occupiedBy = null;
+                lvl.release(s);
+                if (lvl.freeCount[s.size] == 1) setLevelBit(s.size, s.levelIndex);
+                freeSlots.incrementAndGet();
             } finally {
-                lock.unlock();
+                lvl.lock.unlock();
             }
         }
 
+        // A plate is reserved in plateMap with putIfAbsent before a slot is taken, so two gates
+        // can never park the same plate twice; the loser gets the winner's ticket once it is as
+        // durable as the winner's.
+        Ticket parkVehicle(Vehicle v) {
+            while (true) {
+                String tid = plateMap.putIfAbsent(v.plate, PARKING);
+                if (tid == null) break;
+                if (!tid.equals(PARKING)) {
+                    Ticket t = ticketMap.get(tid);
+                    if (t != null && t != RESERVED) {
+                        if (journal != null) journal.awaitDurable(t.parkSeq);
+                        return t;
+                    }
+                }
+                Thread.yield(); // another gate is parking or releasing this plate right now
+            }
+            ParkingSlot s = takeSlot(v);
+            if (s == null) {
+                plateMap.remove(v.plate, PARKING);
+                return null; // no space
+            }
+            String id;
+            do {
+                id = generateTicketId();
+            } while (ticketMap.putIfAbsent(id, RESERVED) != null); // 32 random bits do collide
+            Ticket t = new Ticket(id, v.plate, s.slotId, System.currentTimeMillis());
+            // Journaled before the ticket is published, so a leave can only be journaled after it.
+            try {
+                t.parkSeq = journal == null ? 0 : journal.append(TicketJournal.Event.park(t, v.type));
+            } catch (RuntimeException e) { // nothing was journaled: give back the slot and the plate
+                ticketMap.remove(id, RESERVED);
+                releaseSlot(s);
+                plateMap.remove(v.plate, PARKING);
+                throw e;
+            }
+            ticketMap.put(id, t);
+            plateMap.put(v.plate, id);
+            if (journal != null) journal.awaitDurable(t.parkSeq);
+            return t;
+        }
+
         Map<String, Object> leave(String ticketId) {
-            lock.lock();
+            Ticket t = ticketMap.get(ticketId);
+            if (t == null || t == RESERVED || !ticketMap.remove(ticketId, t)) return null; // one gate wins a ticket
+
+            long now = System.currentTimeMillis();
+            long seconds = (now - t.parkedAt) / 1000;
+            long hours = (seconds + 3599) / 3600;
+            long fee = (hours > 0 ? hours * 10 : 10);
+
+            // Journaled before the slot is freed, so the next park of that slot always comes later.
+            long seq;
             try {
-                Ticket t = ticketMap.get(ticketId);
-                if (t == null) return null;
+                seq = journal == null ? 0 : journal.append(TicketJournal.Event.leave(t, now, fee));
+            } catch (RuntimeException e) { // nothing was journaled: the vehicle is still parked
+                ticketMap.put(ticketId, t);
+                throw e;
+            }
+            releaseSlot(slotsById.get(t.slotId));
+            plateMap.remove(t.plate, ticketId);
+            if (journal != null) journal.awaitDurable(seq);
+
+            Map<String, Object> res = new HashMap<>();
+            res.put("ticket", t);
+            res.put("fee", fee);
+            res.put("durationSeconds", seconds);
+            return res;
+        }
+
+        // Reads the counters without locking: while gates are busy, levels may be a step apart.
+        Map<String, Object> status() {
+            Map<Integer, Map<String, Integer>> perLevel = new HashMap<>();
+            for (Level lvl : levels) {
+                Map<String, Integer> info = new HashMap<>();
+                info.put("total", lvl.slots.size());
+                info.put("free", lvl.free);
+                perLevel.put(lvl.levelId, info);
+            }
+            int free = freeSlots.get();
+            Map<String, Object> result = new HashMap<>();
+            result.put("totalSlots", totalSlots);
+            result.put("freeSlots", free);
+            result.put("occupied", totalSlots - free);
+            result.put("perLevel", perLevel);
+            return result;
+        }
 
-                for (Level lvl : levels) {
+        String dumpSlots() {
+            StringBuilder sb = new StringBuilder();
+            for (Level lvl : levels) {
+                lvl.lock.lock();
+                try {
+                    sb.append("Level ").append(lvl.levelId).append(":\n");
                     for (ParkingSlot s : lvl.slots) {
-                        if (s.slotId.equals(t.slotId)) {
-                            s.occupiedBy = null;
-                            break;
+                        String occ = (s.occupiedBy == null) ? "Free" : s.occupiedBy.plate;
+                        sb.append("  ").append(s.slotId)
+                          .append(" size=").append(s.size)
+                          .append(" -> ").append(occ).append("\n");
+                    }
+                } finally {
+                    lvl.lock.unlock();
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /* --------------------------- TICKET JOURNAL ----------------------------- */
+    // Append-only journal of park and leave events. Gates queue their events and wait; a single
+    // writer thread writes everything queued so far, fsyncs once and releases all those gates
+    // together (group commit). Every snapshotEvery events the writer starts a new segment, writes
+    // the live tickets and revenue to snapshot.bin and deletes the older segments, so recovery
+    // loads the snapshot and replays only the segments after it.
+    //
+    // Segment record: int length | int crc32c(body) | body. A torn tail fails its CRC on recovery
+    // and is cut off; events that never became durable were never acknowledged to a gate.
+    static class TicketJournal implements Closeable {
+        static final byte PARK = 1, LEAVE = 2;
+        static final int SNAPSHOT_MAGIC = 0x50534E31;  // "PSN1"
+        static final long SEGMENT_BYTES = 1L << 30;     // also roll over between snapshots
+        static final int MAX_STRING_BYTES = 255;         // UTF-8 bytes of a ticket id, plate or slot id
+
+        static final class Event {
+            final byte kind;
+            final String ticketId, plate, slotId; // plate and slotId: PARK only
+            final VehicleType type;
+            final long time;                      // parkedAt for PARK, leftAt for LEAVE
+            final long fee;
+            final int size;                       // bytes encode writes
+
+            Event(byte kind, String ticketId, String plate, VehicleType type, String slotId, long time, long fee) {
+                this.kind = kind;
+                this.ticketId = ticketId;
+                this.plate = plate;
+                this.type = type;
+                this.slotId = slotId;
+                this.time = time;
+                this.fee = fee;
+                this.size = 1 + 2 + utf8Length(ticketId)
+                        + (kind == PARK ? 2 + utf8Length(plate) + 1 + 2 + utf8Length(slotId) + 8 : 16);
+            }
+
+            // Rejects strings whose length would not fit the record format.
+            void validate() {
+                check("ticket id", ticketId);
+                if (kind == PARK) {
+                    check("plate", plate);
+                    check("slot id", slotId);
+                }
+            }
+
+            private static void check(String what, String s) {
+                if (utf8Length(s) > MAX_STRING_BYTES) {
+                    throw new IllegalArgumentException(what + " longer than " + MAX_STRING_BYTES + " bytes");
+                }
+            }
+
+            static int utf8Length(String s) {
+                int n = 0;
+                for (int i = 0; i < s.length(); i++) {
+                    char c = s.charAt(i);
+                    n += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3; // a surrogate pair is 4
+                }
+                return n;
+            }
+
+            static Event park(Ticket t, VehicleType type) {
+                return new Event(PARK, t.ticketId, t.plate, type, t.slotId, t.parkedAt, 0);
+            }
+
+            static Event leave(Ticket t, long leftAt, long fee) {
+                return new Event(LEAVE, t.ticketId, null, null, null, leftAt, fee);
+            }
+
+            void encode(ByteBuffer b) {
+                b.put(kind);
+                putString(b, ticketId);
+                if (kind == PARK) {
+                    putString(b, plate);
+                    b.put((byte) type.ordinal());
+                    putString(b, slotId);
+                    b.putLong(time);
+                } else {
+                    b.putLong(time);
+                    b.putLong(fee);
+                }
+            }
+
+            static Event decode(ByteBuffer b) {
+                byte kind = b.get();
+                String ticketId = getString(b);
+                if (kind == PARK) {
+                    String plate = getString(b);
+                    VehicleType type = VehicleType.values()[b.get()];
+                    return new Event(PARK, ticketId, plate, type, getString(b), b.getLong(), 0);
+                }
+                if (kind != LEAVE) throw new IllegalStateException("unknown event kind " + kind);
+                return new Event(LEAVE, ticketId, null, null, null, b.getLong(), b.getLong());
+            }
+
+            static void putString(ByteBuffer b, String s) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                b.putShort((short) bytes.length).put(bytes);
+            }
+
+            static String getString(ByteBuffer b) {
+                byte[] bytes = new byte[b.getShort() & 0xFFFF];
+                b.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+
+        final Path dir;
+        final long snapshotEvery;
+
+        // Guarded by this: the gates' queue and the sequence numbers of queued and durable events.
+        private ArrayList<Event> queue = new ArrayList<>();
+        private long appended, durable;
+        private boolean closed;
+        private Throwable failure; // whatever stopped the writer
+
+        // Writer thread only (recovery runs before it starts).
+        private ArrayList<Event> spare = new ArrayList<>(); // swapped with queue for each batch
+        private final Map<String, Event> live = new HashMap<>(); // ticketId -> its PARK event
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+        private final CRC32C crc = new CRC32C();
+        private FileChannel segment;
+        private long segmentNo, sinceSnapshot;
+        private final Thread writer;
+
+        volatile long revenue, events, fsyncs, snapshots, snapshotNanos;
+        final long recoveryNanos, replayed; // events replayed from segments on open
+        final boolean fromSnapshot;
+
+        TicketJournal(Path dir, long snapshotEvery) throws IOException {
+            this.dir = dir;
+            this.snapshotEvery = snapshotEvery;
+            long start = System.nanoTime();
+            Files.createDirectories(dir);
+            Path snap = dir.resolve("snapshot.bin");
+            fromSnapshot = Files.exists(snap);
+            if (fromSnapshot) loadSnapshot(snap);
+            long before = events;
+            List<Long> segments = segmentNumbers();
+            for (int i = 0; i < segments.size(); i++) {
+                if (segments.get(i) >= segmentNo) replay(segments.get(i), i == segments.size() - 1);
+            }
+            replayed = events - before;
+            if (!segments.isEmpty()) segmentNo = Math.max(segmentNo, segments.get(segments.size() - 1));
+            segment = openSegment(segmentNo);
+            recoveryNanos = System.nanoTime() - start;
+            writer = new Thread(this::writeLoop, "ticket-journal");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        // PARK events of the tickets live at open; a copy, as the writer owns the map.
+        List<Event> liveTickets() {
+            return new ArrayList<>(live.values());
+        }
+
+        // Queues an event and returns its sequence number for awaitDurable. Nothing is queued if
+        // it throws.
+        long append(Event e) {
+            e.validate();
+            synchronized (this) {
+                if (failure != null) throw failed();
+                if (closed) throw new IllegalStateException("ticket journal closed");
+                queue.add(e);
+                if (queue.size() == 1) notifyAll();
+                return ++appended;
+            }
+        }
+
+        void awaitDurable(long seq) {
+            synchronized (this) {
+                boolean interrupted = false;
+                while (durable < seq && failure == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ie) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) Thread.currentThread().interrupt();
+                if (durable < seq) throw failed();
+            }
+        }
+
+        private RuntimeException failed() {
+            return failure instanceof IOException
+                    ? new UncheckedIOException("ticket journal failed", (IOException) failure)
+                    : new IllegalStateException("ticket journal failed", failure);
+        }
+
+        private void writeLoop() {
+            while (true) {
+                ArrayList<Event> batch;
+                long upTo;
+                synchronized (this) {
+                    while (queue.isEmpty() && !closed) {
+                        try {
+                            wait();
+                        } catch (InterruptedException ie) {
+                            // only close() stops the writer
                         }
                     }
+                    if (queue.isEmpty()) return;
+                    batch = queue;
+                    queue = spare;
+                    upTo = appended;
                 }
+                try {
+                    for (Event e : batch) write(e);
+                    flushBuffer();
+                    segment.force(false);
+                    fsyncs++;
+                    for (Event e : batch) apply(e);
+                    sinceSnapshot += batch.size();
+                    batch.clear();
+                    spare = batch;
+                    synchronized (this) {
+                        durable = upTo;
+                        notifyAll();
+                    }
+                    if (sinceSnapshot >= snapshotEvery) {
+                        snapshot();
+                    } else if (segment.size() >= SEGMENT_BYTES) {
+                        segment.close();
+                        segment = openSegment(++segmentNo);
+                    }
+                } catch (Throwable e) { // gates waiting in awaitDurable must hear about any failure
+                    synchronized (this) {
+                        failure = e;
+                        notifyAll();
+                    }
+                    return;
+                }
+            }
+        }
 
-                long now = System.currentTimeMillis();
-                long seconds = (now - t.parkedAt) / 1000;
-                long hours = (seconds + 3599) / 3600;
-                long fee = (hours > 0 ? hours * 10 : 10);
+        private void write(Event e) throws IOException {
+            if (buf.remaining() < 8 + e.size) flushBuffer();
+            int start = buf.position();
+            buf.position(start + 8);
+            e.encode(buf);
+            int end = buf.position();
+            crc.reset();
+            crc.update(buf.duplicate().position(start + 8).limit(end));
+            buf.putInt(start, end - start - 8).putInt(start + 4, (int) crc.getValue());
+        }
 
-                ticketMap.remove(ticketId);
-                plateMap.remove(t.plate);
+        private void flushBuffer() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) segment.write(buf);
+            buf.clear();
+        }
 
-                Map<String, Object> res = new HashMap<>();
-                res.put("ticket", t);
-                res.put("fee", fee);
-                res.put("durationSeconds", seconds);
-                return res;
-            } finally {
-                lock.unlock();
+        private void apply(Event e) {
+            if (e.kind == PARK) {
+                live.put(e.ticketId, e);
+            } else if (live.remove(e.ticketId) != null) {
+                revenue += e.fee;
             }
+            events++;
         }
 
-        Map<String, Object> status() {
-            lock.lock();
+        // Starts a new segment, then writes live tickets and revenue up to the old one's end.
+        private void snapshot() throws IOException {
+            long start = System.nanoTime();
+            segment.close();
+            segment = openSegment(++segmentNo);
+            Path tmp = dir.resolve("snapshot.tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                CheckedOutputStream sum = new CheckedOutputStream(Channels.newOutputStream(ch), new CRC32C());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(sum, 1 << 16));
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeLong(segmentNo); // replay from here
+                out.writeLong(events);
+                out.writeLong(revenue);
+                out.writeInt(live.size());
+                ByteBuffer one = ByteBuffer.allocate(1024);
+                for (Event e : live.values()) {
+                    if (one.capacity() < e.size) one = ByteBuffer.allocate(e.size);
+                    one.clear();
+                    e.encode(one);
+                    out.writeShort(one.position());
+                    out.write(one.array(), 0, one.position());
+                }
+                out.flush();
+                out.writeInt((int) sum.getChecksum().getValue());
+                out.flush();
+                ch.force(true);
+            }
+            Files.move(tmp, dir.resolve("snapshot.bin"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            syncDir(); // make the rename durable before dropping what it replaces
+            for (long n : segmentNumbers()) {
+                if (n < segmentNo) Files.delete(segmentPath(n));
+            }
+            sinceSnapshot = 0;
+            snapshots++;
+            snapshotNanos += System.nanoTime() - start;
+        }
+
+        private void loadSnapshot(Path snap) throws IOException {
+            ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(snap));
+            CRC32C check = new CRC32C();
+            check.update(b.array(), 0, b.limit() - 4);
+            if (b.limit() < 32 || b.getInt(0) != SNAPSHOT_MAGIC || b.getInt(b.limit() - 4) != (int) check.getValue()) {
+                throw new IOException("corrupt snapshot " + snap);
+            }
+            b.position(4);
+            segmentNo = b.getLong();
+            events = b.getLong();
+            revenue = b.getLong();
+            for (int i = b.getInt(); i > 0; i--) {
+                int len = b.getShort() & 0xFFFF;
+                Event e = Event.decode(b.slice(b.position(), len));
+                b.position(b.position() + len);
+                live.put(e.ticketId, e);
+            }
+        }
+
+        private void replay(long n, boolean last) throws IOException {
+            try (FileChannel ch = FileChannel.open(segmentPath(n), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long size = ch.size();
+                MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                int pos = 0;
+                while (pos + 8 <= size) {
+                    int len = map.getInt(pos);
+                    if (len <= 0 || pos + 8L + len > size) break;
+                    map.limit(pos + 8 + len).position(pos + 8);
+                    crc.reset();
+                    crc.update(map);
+                    if ((int) crc.getValue() != map.getInt(pos + 4)) break;
+                    apply(Event.decode(map.position(pos + 8)));
+                    pos += 8 + len;
+                    map.limit((int) size);
+                }
+                if (pos < size) {
+                    if (!last) throw new IOException("corrupt record at " + pos + " in " + segmentPath(n));
+                    ch.truncate(pos); // torn tail of the last write before the crash
+                }
+            }
+        }
+
+        private Path segmentPath(long n) {
+            return dir.resolve(String.format("journal-%08d.log", n));
+        }
+
+        // A new segment's directory entry is made durable before any event is written to it,
+        // or a crash could lose the whole file along with events already acknowledged from it.
+        private FileChannel openSegment(long n) throws IOException {
+            Path path = segmentPath(n);
+            boolean created = !Files.exists(path);
+            FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (created) syncDir();
+            ch.position(ch.size());
+            return ch;
+        }
+
+        private void syncDir() throws IOException {
+            try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+                d.force(true);
+            }
+        }
+
+        private List<Long> segmentNumbers() throws IOException {
+            List<Long> out = new ArrayList<>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "journal-*.log")) {
+                for (Path p : ds) {
+                    String name = p.getFileName().toString();
+                    out.add(Long.parseLong(name.substring(8, name.length() - 4)));
+                }
+            }
+            Collections.sort(out);
+            return out;
+        }
+
+        // Drains the queue, fsyncs and stops the writer.
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+                notifyAll();
+            }
             try {
-                int total = 0, free = 0;
-                Map<Integer, Map<String, Integer>> perLevel = new HashMap<>();
-                for (Level lvl : levels) {
-                    int lvlTotal = lvl.slots.size();
-                    int lvlFree = 0;
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            segment.close();
+            if (failure instanceof IOException) throw (IOException) failure;
+            if (failure != null) throw failed();
+        }
+    }
+
+    /* --------------------------- BENCHMARK ----------------------------- */
+    // Arrivals and departures on a 50 x 2,000 lot held at 95% occupancy: every step one random
+    // car leaves and a new vehicle (1 in 100 a bus) arrives. java ParkingLotDemo bench [steps]
+    static class ParkingBenchmark {
+        // The lot before the free-slot index: park and leave scan every slot.
+        static class ScanParkingLot extends ParkingLot {
+            ReentrantLock lock = new ReentrantLock();
+
+            ScanParkingLot(List<Level> levels) {
+                super(levels);
+            }
+
+            @Override
+            Ticket parkVehicle(Vehicle v) {
+                lock.lock();
+                try {
+                    if (plateMap.containsKey(v.plate)) {
+                        return ticketMap.get(plateMap.get(v.plate));
+                    }
+                    for (Level lvl : levels) {
+                        for (ParkingSlot s : lvl.slots) {
+                            if (s.fits(v)) {
+                                s.occupiedBy = v;
+                                String tid = UUID.randomUUID().toString().substring(0, 8);
+                                Ticket t = new Ticket(tid, v.plate, s.slotId, System.currentTimeMillis());
+                                ticketMap.put(tid, t);
+                                plateMap.put(v.plate, tid);
+                                return t;
+                            }
+                        }
+                    }
+                    return null;
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            Map<String, Object> leave(String ticketId) {
+                lock.lock();
+                try {
+                    Ticket t = ticketMap.get(ticketId);
+                    if (t == null) return null;
+                    for (Level lvl : levels) {
+                        for (ParkingSlot s : lvl.slots) {
+                            if (s.slotId.equals(t.slotId)) {
+                                s.occupiedBy = null;
+                                break;
+                            }
+                        }
+                    }
+                    ticketMap.remove(ticketId);
+                    plateMap.remove(t.plate);
+                    return new HashMap<>();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        // The lot with the free-slot index but one lock around every entry and exit.
+        static class GlobalLockParkingLot extends ParkingLot {
+            ReentrantLock lock = new ReentrantLock();
+
+            GlobalLockParkingLot(List<Level> levels) {
+                super(levels);
+            }
+
+            @Override
+            Ticket parkVehicle(Vehicle v) {
+                lock.lock();
+                try {
+                    return super.parkVehicle(v);
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            Map<String, Object> leave(String ticketId) {
+                lock.lock();
+                try {
+                    return super.leave(ticketId);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        static final int LEVELS = 50, SLOTS_PER_LEVEL = 2_000;
+
+        // Fills the lot to 95%, deals the parked tickets out to the gates, then each gate runs its
+        // share of leave + park steps on its own tickets; returns steps/sec.
+        static double run(ParkingLot pl, int gates, int steps, long seed) throws InterruptedException {
+            int target = LEVELS * SLOTS_PER_LEVEL * 95 / 100;
+            int perGate = target / gates;
+            String[][] parked = new String[gates][perGate + 1];
+            for (int g = 0; g < gates; g++) {
+                for (int i = 0; i < perGate; i++) {
+                    parked[g][i] = pl.parkVehicle(new Vehicle("F" + g + "-" + i, VehicleType.CAR)).ticketId;
+                }
+            }
+            Thread[] workers = new Thread[gates];
+            long start = System.nanoTime();
+            for (int g = 0; g < gates; g++) {
+                String[] mine = parked[g];
+                int gate = g;
+                workers[g] = new Thread(() -> {
+                    Random rnd = new Random(seed * 1000 + gate);
+                    int count = perGate;
+                    for (int i = 0; i < steps / gates; i++) {
+                        int victim = rnd.nextInt(count);
+                        pl.leave(mine[victim]);
+                        mine[victim] = mine[--count];
+                        VehicleType type = rnd.nextInt(100) == 0 ? VehicleType.BUS : VehicleType.CAR;
+                        Ticket t = pl.parkVehicle(new Vehicle("G" + gate + "-" + i, type));
+                        if (t != null) mine[count++] = t.ticketId;
+                    }
+                });
+                workers[g].start();
+            }
+            for (Thread w : workers) w.join();
+            return steps / gates * gates / ((System.nanoTime() - start) / 1e9);
+        }
+
+        static void run(int steps) throws InterruptedException {
+            System.out.printf("%d levels x %d slots at 95%% occupancy, leave + park per step%n", LEVELS, SLOTS_PER_LEVEL);
+            int scanSteps = Math.max(1, steps / 200);
+            System.out.printf("%6s %16s %16s %16s %16s%n", "round", "scan, 1 gate", "index, 1 gate",
+                    "global lock, 20", "level locks, 20");
+            for (int round = 0; round < 3; round++) {
+                double scan = run(new ScanParkingLot(ParkingLot.createDemoLot(LEVELS, SLOTS_PER_LEVEL).levels), 1, scanSteps, round);
+                double single = run(ParkingLot.createDemoLot(LEVELS, SLOTS_PER_LEVEL), 1, steps, round);
+                double global = run(new GlobalLockParkingLot(ParkingLot.createDemoLot(LEVELS, SLOTS_PER_LEVEL).levels), 20, steps, round);
+                ParkingLot pl = ParkingLot.createDemoLot(LEVELS, SLOTS_PER_LEVEL);
+                double striped = run(pl, 20, steps, round);
+                System.out.printf("%6d %,16.0f %,16.0f %,16.0f %,16.0f%n", round, scan, single, global, striped);
+                int free = 0;
+                for (Level lvl : pl.levels) {
                     for (ParkingSlot s : lvl.slots) {
-                        if (s.isFree()) lvlFree++;
+                        if (s.isFree()) free++;
                     }
-                    Map<String, Integer> info = new HashMap<>();
-                    info.put("total", lvlTotal);
-                    info.put("free", lvlFree);
-                    perLevel.put(lvl.levelId, info);
-                    total += lvlTotal;
-                    free += lvlFree;
-                }
-                int occupied = total - free;
-                Map<String, Object> result = new HashMap<>();
-                result.put("totalSlots", total);
-                result.put("freeSlots", free);
-                result.put("occupied", occupied);
-                result.put("perLevel", perLevel);
-                return result;
-            } finally {
-                lock.unlock();
+                }
+                if (free != pl.freeSlots.get() || (int) pl.status().get("freeSlots") != free) {
+                    throw new AssertionError("free-slot counters drifted: " + pl.freeSlots + " vs " + free);
+                }
             }
+            System.out.printf("steps/s; the scan ran %d steps, the others %d; status() counters match a full recount%n",
+                    scanSteps, steps);
         }
+    }
 
-        String dumpSlots() {
-            lock.lock();
+    /* --------------------------- STRESS TEST ----------------------------- */
+    // 20 gates park and release a shared pool of plates on a small lot while a checker
+    // repeatedly locks every level and asserts that no plate occupies two slots.
+    // First with a few hot plates (same-plate races), then with more plates than slots
+    // (lot full). java ParkingLotDemo stress [seconds]
+    static class ParkingStress {
+        static void check(boolean ok, String what) {
+            if (!ok) throw new AssertionError(what);
+        }
+
+        // With every level locked, slots cannot change: a consistent snapshot.
+        static int snapshot(ParkingLot pl) {
+            for (Level lvl : pl.levels) lvl.lock.lock();
             try {
-                StringBuilder sb = new StringBuilder();
-                for (Level lvl : levels) {
-                    sb.append("Level ").append(lvl.levelId).append(":\n");
+                Set<String> seen = new HashSet<>();
+                int occupied = 0;
+                for (Level lvl : pl.levels) {
+                    int free = 0;
                     for (ParkingSlot s : lvl.slots) {
-                        String occ = (s.occupiedBy == null) ? "Free" : s.occupiedBy.plate;
-                        sb.append("  ").append(s.slotId)
-                          .append(" size=").append(s.size)
-                          .append(" -> ").append(occ).append("\n");
+                        if (s.isFree()) {
+                            free++;
+                        } else {
+                            occupied++;
+                            check(seen.add(s.occupiedBy.plate), "plate " + s.occupiedBy.plate + " parked twice");
+                        }
+                    }
+                    check(free == lvl.free, "level " + lvl.levelId + " free counter drifted");
+                    for (int size = 1; size <= MAX_SLOT_SIZE; size++) {
+                        boolean bit = (pl.levelsWithFree[size].get(lvl.slots.get(0).levelIndex >>> 6)
+                                & 1L << lvl.slots.get(0).levelIndex) != 0;
+                        check(bit == (lvl.freeCount[size] > 0), "level bitmap out of date");
                     }
                 }
-                return sb.toString();
+                return occupied;
             } finally {
-                lock.unlock();
+                for (Level lvl : pl.levels) lvl.lock.unlock();
+            }
+        }
+
+        static void phase(String name, int plateCount, long millis) throws InterruptedException {
+            ParkingLot pl = ParkingLot.createDemoLot(4, 50);
+            Vehicle[] vehicles = new Vehicle[plateCount];
+            for (int i = 0; i < plateCount; i++) {
+                VehicleType type = i % 10 == 0 ? VehicleType.MOTORCYCLE : i % 25 == 1 ? VehicleType.BUS : VehicleType.CAR;
+                vehicles[i] = new Vehicle("P" + i, type);
+            }
+            AtomicBoolean stop = new AtomicBoolean();
+            LongAdder parks = new LongAdder(), leaves = new LongAdder(), full = new LongAdder();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int g = 0; g < 20; g++) {
+                threads.add(new Thread(() -> {
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    while (!stop.get()) {
+                        Vehicle v = vehicles[rnd.nextInt(plateCount)];
+                        if (rnd.nextBoolean()) {
+                            Ticket t = pl.parkVehicle(v);
+                            if (t == null) {
+                                full.increment();
+                            } else {
+                                check(t.plate.equals(v.plate), "ticket for the wrong plate");
+                                parks.increment();
+                            }
+                        } else {
+                            String tid = pl.plateMap.get(v.plate);
+                            if (tid != null && pl.leave(tid) != null) leaves.increment();
+                        }
+                    }
+                }));
+            }
+            int[] snapshots = new int[1];
+            threads.add(new Thread(() -> {
+                while (!stop.get()) {
+                    snapshot(pl);
+                    snapshots[0]++;
+                }
+            }));
+            for (Thread t : threads) {
+                t.setUncaughtExceptionHandler((th, e) -> {
+                    failure.compareAndSet(null, e);
+                    stop.set(true);
+                });
+                t.start();
+            }
+            Thread.sleep(millis);
+            stop.set(true);
+            for (Thread t : threads) t.join();
+            if (failure.get() != null) throw new AssertionError(name + ": " + failure.get().getMessage(), failure.get());
+
+            int occupied = snapshot(pl);
+            check(occupied == pl.ticketMap.size() && occupied == pl.plateMap.size(), "tickets and slots disagree");
+            check(pl.freeSlots.get() == pl.totalSlots - occupied, "lot free counter drifted");
+            for (Ticket t : pl.ticketMap.values()) {
+                check(pl.slotsById.get(t.slotId).occupiedBy.plate.equals(t.plate), "ticket points at another car");
+                check(t.ticketId.equals(pl.plateMap.get(t.plate)), "plateMap points at another ticket");
+            }
+            System.out.printf("%-12s %,10d park calls %,10d leaves %,9d lot full %,7d locked snapshots, %d/%d occupied%n",
+                    name, parks.sum(), leaves.sum(), full.sum(), snapshots[0], occupied, pl.totalSlots);
+        }
+
+        static void run(int seconds) throws InterruptedException {
+            phase("hot plates", 16, seconds * 500L);
+            phase("lot full", 400, seconds * 500L);
+            System.out.println("no plate ever held two slots; tickets, plates and counters consistent");
+        }
+    }
+
+    /* --------------------------- JOURNAL BENCHMARK ----------------------------- */
+    // 20 gates fill a journaled 50 x 2,000 lot to 95% and then leave + park until the journal
+    // holds the requested number of events. The lot is closed and reopened to time recovery:
+    // once with a snapshot every million events, once replaying the whole journal. Ends with
+    // a torn-write check and an over-long plate. java ParkingLotDemo journal [events]
+    static class JournalBenchmark {
+        static final int GATES = 20;
+
+        static void drive(ParkingLot pl, long events) throws InterruptedException {
+            int perGate = ParkingBenchmark.LEVELS * ParkingBenchmark.SLOTS_PER_LEVEL * 95 / 100 / GATES;
+            long eventsPerGate = events / GATES;
+            Thread[] workers = new Thread[GATES];
+            for (int g = 0; g < GATES; g++) {
+                int gate = g;
+                workers[g] = new Thread(() -> {
+                    Random rnd = new Random(gate);
+                    String[] mine = new String[perGate + 1];
+                    int count = 0;
+                    long done = 0, plate = 0;
+                    while (count < perGate) {
+                        mine[count++] = pl.parkVehicle(new Vehicle("G" + gate + "-" + plate++, VehicleType.CAR)).ticketId;
+                        done++;
+                    }
+                    while (done < eventsPerGate) {
+                        int victim = rnd.nextInt(count);
+                        pl.leave(mine[victim]);
+                        mine[victim] = mine[--count];
+                        done++;
+                        VehicleType type = rnd.nextInt(100) == 0 ? VehicleType.BUS : VehicleType.CAR;
+                        Ticket t = pl.parkVehicle(new Vehicle("G" + gate + "-" + plate++, type));
+                        if (t != null) {
+                            mine[count++] = t.ticketId;
+                            done++;
+                        }
+                    }
+                });
+                workers[g].start();
+            }
+            for (Thread w : workers) w.join();
+        }
+
+        static long deleteAll(Path dir) throws IOException {
+            long bytes = 0;
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+                for (Path p : ds) {
+                    bytes += Files.size(p);
+                    Files.delete(p);
+                }
             }
+            Files.delete(dir);
+            return bytes;
+        }
+
+        static void run(long events) throws IOException, InterruptedException {
+            System.out.printf("%d gates, %,d events, group commit with one fsync per batch%n", GATES, events);
+            for (long every : new long[]{1_000_000, Long.MAX_VALUE}) {
+                Path dir = Files.createTempDirectory("parking-journal");
+                ParkingLot pl = ParkingLot.open(ParkingLot.createDemoLot(50, 2_000).levels, dir, every);
+                long start = System.nanoTime();
+                drive(pl, events);
+                double secs = (System.nanoTime() - start) / 1e9;
+                Map<String, String> expected = new HashMap<>();
+                for (Ticket t : pl.ticketMap.values()) expected.put(t.ticketId, t.slotId);
+                TicketJournal j = pl.journal;
+                pl.close();
+                System.out.printf("%nsnapshot every %s%n", every == Long.MAX_VALUE ? "never" : String.format("%,d events", every));
+                System.out.printf("  write:    %,d events in %.1fs = %,.0f events/s durable, %,d fsyncs (%.1f events each)%n",
+                        j.events, secs, j.events / secs, j.fsyncs, (double) j.events / j.fsyncs);
+                if (j.snapshots > 0) {
+                    System.out.printf("            %d snapshots, %.1f ms each%n", j.snapshots, j.snapshotNanos / 1e6 / j.snapshots);
+                }
+
+                ParkingLot back = ParkingLot.open(ParkingLot.createDemoLot(50, 2_000).levels, dir, every);
+                TicketJournal r = back.journal;
+                Map<String, String> recovered = new HashMap<>();
+                for (Ticket t : back.ticketMap.values()) recovered.put(t.ticketId, t.slotId);
+                if (!recovered.equals(expected) || r.events != j.events || r.revenue != j.revenue
+                        || back.freeSlots.get() != back.totalSlots - expected.size()) {
+                    throw new AssertionError("recovered lot differs from the one that was closed");
+                }
+                System.out.printf("  recovery: %.0f ms, %s + %,d replayed events; %,d tickets, revenue %,d match%n",
+                        r.recoveryNanos / 1e6, r.fromSnapshot ? "snapshot" : "no snapshot", r.replayed,
+                        recovered.size(), r.revenue);
+                back.close();
+                System.out.printf("  on disk:  %,d MB%n", deleteAll(dir) >> 20);
+            }
+
+            // A crash in the middle of a write leaves part of a record behind.
+            Path dir = Files.createTempDirectory("parking-journal");
+            ParkingLot pl = ParkingLot.open(ParkingLot.createDemoLot(2, 8).levels, dir, Long.MAX_VALUE);
+            for (int i = 0; i < 5; i++) pl.parkVehicle(new Vehicle("T" + i, VehicleType.CAR));
+            pl.close();
+            Path seg = dir.resolve("journal-00000000.log");
+            long size = Files.size(seg);
+            Files.write(seg, new byte[]{0, 0, 0, 40, 1, 2, 3, 4, 1, 0, 8, 'T'}, StandardOpenOption.APPEND);
+            ParkingLot back = ParkingLot.open(ParkingLot.createDemoLot(2, 8).levels, dir, Long.MAX_VALUE);
+            if (back.ticketMap.size() != 5 || Files.size(seg) != size) throw new AssertionError("torn tail not cut off");
+            back.close();
+            deleteAll(dir);
+            System.out.println("\ntorn write: partial record cut off, all 5 acknowledged tickets recovered");
+
+            // A plate too long for the record format is refused and undone, and the writer keeps
+            // going: a snapshot after every batch writes the live tickets each time.
+            dir = Files.createTempDirectory("parking-journal");
+            pl = ParkingLot.open(ParkingLot.createDemoLot(2, 8).levels, dir, 1);
+            try {
+                pl.parkVehicle(new Vehicle("L".repeat(70_000), VehicleType.CAR));
+                throw new AssertionError("over-long plate journaled");
+            } catch (IllegalArgumentException expected) {
+                // refused before anything was queued
+            }
+            if (pl.freeSlots.get() != pl.totalSlots || !pl.plateMap.isEmpty() || !pl.ticketMap.isEmpty()) {
+                throw new AssertionError("refused park kept its slot or plate");
+            }
+            for (int i = 0; i < 5; i++) pl.parkVehicle(new Vehicle("T" + i, VehicleType.CAR));
+            pl.close();
+            back = ParkingLot.open(ParkingLot.createDemoLot(2, 8).levels, dir, 1);
+            if (back.ticketMap.size() != 5) throw new AssertionError("tickets after a refused park lost");
+            back.close();
+            deleteAll(dir);
+            System.out.println("long plate: refused with its slot released, journal still durable");
+
+            // Gates racing to park one plate all leave with the winner's ticket.
+            dir = Files.createTempDirectory("parking-journal");
+            ParkingLot lot = ParkingLot.open(ParkingLot.createDemoLot(2, 8).levels, dir, Long.MAX_VALUE);
+            Ticket[] got = new Ticket[8];
+            Thread[] gates = new Thread[got.length];
+            for (int g = 0; g < gates.length; g++) {
+                int gate = g;
+                gates[g] = new Thread(() -> got[gate] = lot.parkVehicle(new Vehicle("SAME", VehicleType.CAR)));
+                gates[g].start();
+            }
+            for (Thread g : gates) g.join();
+            for (Ticket t : got) {
+                if (t != got[0]) throw new AssertionError("one plate got two tickets");
+            }
+            lot.close();
+            back = ParkingLot.open(ParkingLot.createDemoLot(2, 8).levels, dir, Long.MAX_VALUE);
+            if (back.ticketMap.size() != 1 || !back.ticketMap.containsKey(got[0].ticketId)) {
+                throw new AssertionError("raced ticket not recovered");
+            }
+            back.close();
+            deleteAll(dir);
+            System.out.println("same plate: " + gates.length + " gates, one ticket, recovered after reopen");
         }
     }
 
     /* --------------------------- DEMO MAIN ----------------------------- */
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) throws InterruptedException, IOException {
+        if (args.length > 0 && args[0].equals("bench")) {
+            ParkingBenchmark.run(args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("stress")) {
+            ParkingStress.run(args.length > 1 ? Integer.parseInt(args[1]) : 10);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("journal")) {
+            JournalBenchmark.run(args.length > 1 ? Long.parseLong(args[1]) : 10_000_000L);
+            return;
+        }
         ParkingLot pl = ParkingLot.createDemoLot(2, 8);
         System.out.println("=== Parking Lot Created ===");
         System.out.println(pl.status());